@@ -0,0 +1,63 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.devspark.aws.lorm.test.model.Expense;
+import org.devspark.aws.lorm.test.model.Merchant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * save(List) of existing entities: item building, chunking in BatchWriteItem
+ * requests and their dispatch on the batch executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchWriteBenchmark {
+
+    @Param({ "25", "100", "1000" })
+    private int batchSize;
+
+    private DynamoDBEntityManager entityManager;
+    private DynamoDBBaseRepository<Expense> expenseRepository;
+    private List<Expense> expenses;
+
+    @Setup
+    public void setUp() {
+        entityManager = BenchmarkSupport.newEntityManager(new StubDynamoDBClient());
+        expenseRepository = BenchmarkSupport.getRepository(entityManager, Expense.class);
+
+        Merchant merchant = BenchmarkSupport.buildMerchant("merchant-1");
+        expenses = new ArrayList<Expense>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            expenses.add(BenchmarkSupport.buildExpense("expense-" + i, merchant));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        entityManager.shutdown();
+    }
+
+    @Benchmark
+    public List<Expense> saveList() {
+        return expenseRepository.save(expenses);
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.devspark.aws.lorm.mapping.EntityToItemMapperImpl;
+import org.devspark.aws.lorm.mapping.ItemToEntityMapperImpl;
+import org.devspark.aws.lorm.test.model.Expense;
+import org.devspark.aws.lorm.test.model.ExpenseType;
+import org.devspark.aws.lorm.test.model.Merchant;
+import org.devspark.aws.lorm.test.model.embedded.DeepEmbedded;
+import org.devspark.aws.lorm.test.model.embedded.SampleEmbeddable;
+import org.devspark.aws.lorm.test.model.embedded.SampleEntity;
+
+/**
+ * Entity manager and sample entities shared by the benchmarks, the entities
+ * are the ones of the integration tests.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static DynamoDBEntityManager newEntityManager(StubDynamoDBClient client) {
+        DynamoDBEntityManager entityManager = new DynamoDBEntityManager(client);
+        addEntity(entityManager, Merchant.class);
+        addEntity(entityManager, Expense.class);
+        addEntity(entityManager, SampleEntity.class);
+
+        return entityManager;
+    }
+
+    private static <T> void addEntity(DynamoDBEntityManager entityManager,
+            Class<T> entityClass) {
+        entityManager.addEntity(entityClass, new EntityToItemMapperImpl<T>(entityClass),
+                new ItemToEntityMapperImpl<T>(entityClass, entityManager),
+                new EntityToItemMapperImpl<T>(entityClass));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> DynamoDBBaseRepository<T> getRepository(
+            DynamoDBEntityManager entityManager, Class<T> entityClass) {
+        return (DynamoDBBaseRepository<T>) entityManager.getRepository(entityClass);
+    }
+
+    static Merchant buildMerchant(String id) {
+        Merchant merchant = new Merchant();
+        merchant.setId(id);
+        merchant.setName("benchmark merchant");
+
+        return merchant;
+    }
+
+    static Expense buildExpense(String id, Merchant merchant) {
+        Expense expense = new Expense();
+        expense.setId(id);
+        expense.setAmount(new BigDecimal("125.50"));
+        expense.setDate(new Date(1445000000000L));
+        expense.setDescription("benchmark expense description");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+
+        return expense;
+    }
+
+    static SampleEntity buildSampleEntity(String id) {
+        DeepEmbedded deepEmbedded = new DeepEmbedded();
+        deepEmbedded.setEmbeddedField("some deep embedded field");
+
+        SampleEmbeddable sampleEmbeddable = new SampleEmbeddable();
+        sampleEmbeddable.setSomeField("some embedded field");
+        sampleEmbeddable.setDeepEmbedded(deepEmbedded);
+
+        SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setId(id);
+        sampleEntity.setSomeRandomField("random field");
+        sampleEntity.setEmbedded(sampleEmbeddable);
+
+        return sampleEntity;
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.devspark.aws.lorm.mapping.EntityToItemMapper;
+import org.devspark.aws.lorm.mapping.EntityToItemMapperImpl;
+import org.devspark.aws.lorm.mapping.ItemToEntityMapper;
+import org.devspark.aws.lorm.mapping.ItemToEntityMapperImpl;
+import org.devspark.aws.lorm.schema.AttributeDefinition;
+import org.devspark.aws.lorm.test.model.Expense;
+import org.devspark.aws.lorm.test.model.Merchant;
+import org.devspark.aws.lorm.test.model.embedded.SampleEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Entity to item and item to entity mapping of an entity with a ManyToOne
+ * reference (Expense) and of one with nested embeddables (SampleEntity).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    private DynamoDBEntityManager entityManager;
+    private DynamoDBBaseRepository<Expense> expenseRepository;
+    private DynamoDBBaseRepository<SampleEntity> sampleEntityRepository;
+
+    private EntityToItemMapper expenseToItemMapper;
+    private ItemToEntityMapper<Expense> itemToExpenseMapper;
+    private EntityToItemMapper sampleEntityToItemMapper;
+    private ItemToEntityMapper<SampleEntity> itemToSampleEntityMapper;
+
+    private Expense expense;
+    private Item expenseItem;
+    private Map<AttributeDefinition, Object> expenseAttributes;
+    private SampleEntity sampleEntity;
+    private Item sampleEntityItem;
+    private Map<AttributeDefinition, Object> sampleEntityAttributes;
+
+    @Setup
+    public void setUp() {
+        entityManager = BenchmarkSupport.newEntityManager(new StubDynamoDBClient());
+        expenseRepository = BenchmarkSupport.getRepository(entityManager, Expense.class);
+        sampleEntityRepository = BenchmarkSupport.getRepository(entityManager,
+                SampleEntity.class);
+
+        expenseToItemMapper = new EntityToItemMapperImpl<Expense>(Expense.class);
+        itemToExpenseMapper = new ItemToEntityMapperImpl<Expense>(Expense.class,
+                entityManager);
+        sampleEntityToItemMapper = new EntityToItemMapperImpl<SampleEntity>(
+                SampleEntity.class);
+        itemToSampleEntityMapper = new ItemToEntityMapperImpl<SampleEntity>(
+                SampleEntity.class, entityManager);
+
+        // saved entities are the templates of the stub reads
+        Merchant merchant = BenchmarkSupport.buildMerchant("merchant-1");
+        BenchmarkSupport.getRepository(entityManager, Merchant.class).save(merchant);
+
+        expense = BenchmarkSupport.buildExpense("expense-1", merchant);
+        expenseRepository.save(expense);
+        expenseItem = expenseRepository.buildItem(expense);
+        expenseAttributes = expenseRepository.extractAttrsFromItem(expenseItem);
+
+        sampleEntity = BenchmarkSupport.buildSampleEntity("sample-1");
+        sampleEntityRepository.save(sampleEntity);
+        sampleEntityItem = sampleEntityRepository.buildItem(sampleEntity);
+        sampleEntityAttributes = sampleEntityRepository
+                .extractAttrsFromItem(sampleEntityItem);
+    }
+
+    @TearDown
+    public void tearDown() {
+        entityManager.shutdown();
+    }
+
+    @Benchmark
+    public Item buildItemExpense() {
+        return expenseRepository.buildItem(expense);
+    }
+
+    @Benchmark
+    public Item buildItemSampleEntity() {
+        return sampleEntityRepository.buildItem(sampleEntity);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeExpense() {
+        return expenseRepository.encode(expense);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> encodeSampleEntity() {
+        return sampleEntityRepository.encode(sampleEntity);
+    }
+
+    @Benchmark
+    public Map<AttributeDefinition, Object> extractAttrsExpense() {
+        return expenseRepository.extractAttrsFromItem(expenseItem);
+    }
+
+    @Benchmark
+    public Map<AttributeDefinition, Object> extractAttrsSampleEntity() {
+        return sampleEntityRepository.extractAttrsFromItem(sampleEntityItem);
+    }
+
+    @Benchmark
+    public Map<AttributeDefinition, Object> entityToItemExpense() {
+        return expenseToItemMapper.map(expense);
+    }
+
+    @Benchmark
+    public Map<AttributeDefinition, Object> entityToItemSampleEntity() {
+        return sampleEntityToItemMapper.map(sampleEntity);
+    }
+
+    /**
+     * Resolves the merchant reference through the stub client.
+     */
+    @Benchmark
+    public Expense itemToEntityExpense() {
+        return itemToExpenseMapper.map(expenseAttributes);
+    }
+
+    @Benchmark
+    public SampleEntity itemToEntitySampleEntity() {
+        return itemToSampleEntityMapper.map(sampleEntityAttributes);
+    }
+
+    /**
+     * Full read path: GetItem on the stub, attribute extraction and mapping.
+     */
+    @Benchmark
+    public Expense findOneExpense() {
+        return expenseRepository.findOne("expense-1");
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * In process client answering item requests without any I/O. The last item put
+ * on each table is the template of the items read from it, with the requested
+ * key, so benchmarks measure the client side of the calls only.
+ */
+public class StubDynamoDBClient extends AmazonDynamoDBAsyncClient {
+
+    private final Map<String, Map<String, AttributeValue>> templates = new ConcurrentHashMap<String, Map<String, AttributeValue>>();
+    private final AtomicLong writtenItems = new AtomicLong();
+
+    public StubDynamoDBClient() {
+        super(new BasicAWSCredentials("", ""));
+    }
+
+    public long getWrittenItems() {
+        return writtenItems.get();
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest putItemRequest) {
+        templates.put(putItemRequest.getTableName(), putItemRequest.getItem());
+        writtenItems.incrementAndGet();
+
+        return new PutItemResult();
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest getItemRequest) {
+        return new GetItemResult().withItem(
+                buildItem(getItemRequest.getTableName(), getItemRequest.getKey()));
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(BatchGetItemRequest batchGetItemRequest) {
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<String, List<Map<String, AttributeValue>>>();
+        for (Map.Entry<String, KeysAndAttributes> entry : batchGetItemRequest
+                .getRequestItems().entrySet()) {
+            List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+            for (Map<String, AttributeValue> key : entry.getValue().getKeys()) {
+                Map<String, AttributeValue> item = buildItem(entry.getKey(), key);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            responses.put(entry.getKey(), items);
+        }
+
+        return new BatchGetItemResult().withResponses(responses)
+                .withUnprocessedKeys(new HashMap<String, KeysAndAttributes>());
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(
+            BatchWriteItemRequest batchWriteItemRequest) {
+        for (List<WriteRequest> writeRequests : batchWriteItemRequest.getRequestItems()
+                .values()) {
+            writtenItems.addAndGet(writeRequests.size());
+        }
+
+        return new BatchWriteItemResult()
+                .withUnprocessedItems(new HashMap<String, List<WriteRequest>>());
+    }
+
+    private Map<String, AttributeValue> buildItem(String tableName,
+            Map<String, AttributeValue> key) {
+        Map<String, AttributeValue> template = templates.get(tableName);
+        if (template == null) {
+            return null;
+        }
+
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(template);
+        item.putAll(key);
+
+        return item;
+    }
+
+}
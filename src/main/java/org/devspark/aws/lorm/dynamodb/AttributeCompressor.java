@@ -0,0 +1,164 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+import org.devspark.aws.lorm.exceptions.DataValidationException;
+
+/**
+ * Compresses and decompresses the attributes of the {@link Compressed} fields
+ * of an entity. Compressed values are binaries starting with a two bytes magic
+ * and the algorithm, so plain values written before are read as they are.
+ */
+class AttributeCompressor {
+
+    private final static byte MAGIC_0 = (byte) 0xC0;
+    private final static byte MAGIC_1 = (byte) 0xDE;
+    private final static int HEADER_LENGTH = 3;
+
+    private final static byte STORED = 0;
+    private final static byte DEFLATE = 1;
+    private final static byte GZIP = 2;
+
+    private final Map<String, Compressed> attributes;
+
+    AttributeCompressor(Class<?> entityClass) {
+        this.attributes = getCompressedAttributes(entityClass);
+    }
+
+    private static Map<String, Compressed> getCompressedAttributes(Class<?> entityClass) {
+        Map<String, Compressed> attributes = new HashMap<String, Compressed>();
+
+        Class<?> currentClass = entityClass;
+        while (currentClass != null && !Object.class.equals(currentClass)) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                Compressed compressed = field.getAnnotation(Compressed.class);
+                if (compressed == null) {
+                    continue;
+                }
+
+                // binary attributes can not be mapped back to entities
+                if (!String.class.equals(field.getType())) {
+                    throw new DataValidationException("Compressed field "
+                            + field.getName() + " of " + entityClass.getName()
+                            + " should be a String");
+                }
+
+                attributes.put(field.getName(), compressed);
+            }
+
+            currentClass = currentClass.getSuperclass();
+        }
+
+        return attributes.isEmpty() ? Collections.<String, Compressed> emptyMap()
+                : attributes;
+    }
+
+    boolean isEmpty() {
+        return attributes.isEmpty();
+    }
+
+    boolean isCompressed(String attributeName) {
+        return attributes.containsKey(attributeName);
+    }
+
+    /**
+     * Value to write for the attribute, the given one when the attribute is not
+     * compressed or is below the threshold.
+     */
+    Object compress(String attributeName, Object value) {
+        Compressed compressed = attributes.get(attributeName);
+        if (compressed == null || value == null) {
+            return value;
+        }
+
+        byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < compressed.threshold()) {
+            return value;
+        }
+
+        byte algorithm = compressed.algorithm() == Compressed.Algorithm.GZIP
+                ? GZIP : DEFLATE;
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        output.write(MAGIC_0);
+        output.write(MAGIC_1);
+        output.write(algorithm);
+        try {
+            OutputStream compressingOutput = algorithm == GZIP
+                    ? new GZIPOutputStream(output) : new DeflaterOutputStream(output);
+            compressingOutput.write(bytes);
+            compressingOutput.close();
+        } catch (IOException e) {
+            throw new DataException("Could not compress attribute " + attributeName + ": "
+                    + e);
+        }
+
+        byte[] compressedBytes = output.toByteArray();
+        if (compressedBytes.length >= bytes.length + HEADER_LENGTH) {
+            // not worth it
+            return value;
+        }
+
+        return compressedBytes;
+    }
+
+    /**
+     * Value read for the attribute, decompressed when it was written compressed.
+     */
+    Object decompress(String attributeName, Object value) {
+        if (!attributes.containsKey(attributeName) || !(value instanceof byte[])) {
+            return value;
+        }
+
+        byte[] bytes = (byte[]) value;
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+            return value;
+        }
+
+        byte[] decompressedBytes;
+        if (bytes[2] == STORED) {
+            decompressedBytes = new byte[bytes.length - HEADER_LENGTH];
+            System.arraycopy(bytes, HEADER_LENGTH, decompressedBytes, 0,
+                    decompressedBytes.length);
+        } else {
+            decompressedBytes = inflate(attributeName, bytes);
+        }
+
+        return new String(decompressedBytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] inflate(String attributeName, byte[] bytes) {
+        ByteArrayInputStream input = new ByteArrayInputStream(bytes, HEADER_LENGTH,
+                bytes.length - HEADER_LENGTH);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+        try {
+            InputStream decompressingInput = bytes[2] == GZIP ? new GZIPInputStream(input)
+                    : new InflaterInputStream(input);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = decompressingInput.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            decompressingInput.close();
+        } catch (IOException e) {
+            throw new DataException("Could not decompress attribute " + attributeName + ": "
+                    + e);
+        }
+
+        return output.toByteArray();
+    }
+
+}
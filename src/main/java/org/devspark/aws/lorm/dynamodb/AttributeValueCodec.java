@@ -0,0 +1,113 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.devspark.aws.lorm.mapping.EntityToItemMapper;
+import org.devspark.aws.lorm.schema.AttributeDefinition;
+
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Maps entities straight to and from the attribute values of the low level
+ * client, skipping the Item of the Document API. Values are converted as the
+ * Document API does (numbers are read as BigDecimal, binaries as byte[]).
+ */
+class AttributeValueCodec<T> {
+
+    private final EntityToItemMapper entityToItemMapper;
+    private final DynamoDBSchemaSupport<T> schemaSupport;
+    private final AttributeCompressor compressor;
+
+    AttributeValueCodec(EntityToItemMapper entityToItemMapper,
+            DynamoDBSchemaSupport<T> schemaSupport, AttributeCompressor compressor) {
+        this.entityToItemMapper = entityToItemMapper;
+        this.schemaSupport = schemaSupport;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Attribute values of the entity, null attributes are not written.
+     */
+    Map<String, AttributeValue> encode(T instance) {
+        Map<AttributeDefinition, Object> attributes = entityToItemMapper.map(instance);
+
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(
+                attributes.size() * 4 / 3 + 1);
+        for (Map.Entry<AttributeDefinition, Object> attribute : attributes.entrySet()) {
+            if (attribute.getValue() != null) {
+                String name = attribute.getKey().getName();
+                item.put(name,
+                        toAttributeValue(compressor.compress(name, attribute.getValue())));
+            }
+        }
+
+        return item;
+    }
+
+    Map<AttributeDefinition, Object> decode(Map<String, AttributeValue> item) {
+        Map<AttributeDefinition, Object> attributes = new HashMap<AttributeDefinition, Object>(
+                item.size() * 4 / 3 + 1);
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            Object value = compressor.decompress(attribute.getKey(),
+                    toSimpleValue(attribute.getValue()));
+            if (value != null) {
+                attributes.put(schemaSupport.getAttributeDefinition(attribute.getKey(),
+                        value.getClass()), value);
+            }
+        }
+
+        return attributes;
+    }
+
+    static AttributeValue toAttributeValue(Object value) {
+        if (value instanceof String) {
+            return new AttributeValue().withS((String) value);
+        } else if (value instanceof BigDecimal) {
+            return new AttributeValue().withN(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Number) {
+            return new AttributeValue().withN(value.toString());
+        } else if (value instanceof Boolean) {
+            return new AttributeValue().withBOOL((Boolean) value);
+        } else if (value instanceof byte[]) {
+            return new AttributeValue().withB(ByteBuffer.wrap((byte[]) value));
+        }
+
+        // sets, lists and maps
+        return ItemUtils.toAttributeValue(value);
+    }
+
+    static Object toSimpleValue(AttributeValue value) {
+        if (value == null || Boolean.TRUE.equals(value.getNULL())) {
+            return null;
+        } else if (value.getS() != null) {
+            return value.getS();
+        } else if (value.getN() != null) {
+            return new BigDecimal(value.getN());
+        } else if (value.getBOOL() != null) {
+            return value.getBOOL();
+        } else if (value.getB() != null) {
+            ByteBuffer buffer = value.getB().duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        return ItemUtils.toSimpleValue(value);
+    }
+
+    /**
+     * String form of a key or reference attribute, null when missing.
+     */
+    static String toStringValue(AttributeValue value) {
+        if (value == null) {
+            return null;
+        }
+
+        return value.getS() != null ? value.getS() : value.getN();
+    }
+
+}
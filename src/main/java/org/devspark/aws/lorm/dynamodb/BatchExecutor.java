@@ -0,0 +1,18 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executes the tasks of batch operations (batch writes, deletes, gets and
+ * parallel scans). One instance is shared by all the repositories of a
+ * {@link DynamoDBEntityManager}, so it is the global concurrency cap for
+ * batches. When saturated, implementations should run the task in the caller
+ * thread instead of queuing it, batch tasks may wait on nested batch tasks.
+ * Once shut down they should throw a RejectedExecutionException, a discarded
+ * task would never complete.
+ */
+public interface BatchExecutor extends Executor {
+
+    void shutdown();
+
+}
@@ -0,0 +1,20 @@
+package org.devspark.aws.lorm.dynamodb;
+
+public final class BatchExecutors {
+
+    private BatchExecutors() {
+    }
+
+    /**
+     * Virtual thread per task executor when running on Java 21+, bounded pool
+     * of platform threads otherwise.
+     */
+    public static BatchExecutor newDefaultExecutor(int maxConcurrency) {
+        if (VirtualThreadBatchExecutor.isAvailable()) {
+            return new VirtualThreadBatchExecutor(maxConcurrency);
+        }
+
+        return new BoundedBatchExecutor(Math.min(5, maxConcurrency), maxConcurrency);
+    }
+
+}
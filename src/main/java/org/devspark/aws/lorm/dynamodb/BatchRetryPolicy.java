@@ -0,0 +1,93 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+/**
+ * Retry policy for the unprocessed items of batch operations. Delays grow
+ * exponentially with decorrelated jitter (each delay is a random value between
+ * the base delay and three times the previous one, capped by the max delay).
+ * Retries stop when the max attempts or the time budget are exhausted.
+ */
+public class BatchRetryPolicy {
+
+    public final static long DEFAULT_BASE_DELAY_MILLIS = 50;
+    public final static long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    public final static int DEFAULT_MAX_ATTEMPTS = 10;
+    public final static long DEFAULT_MAX_ELAPSED_MILLIS = 30000;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final long maxElapsedMillis;
+
+    public BatchRetryPolicy() {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_ATTEMPTS,
+                DEFAULT_MAX_ELAPSED_MILLIS);
+    }
+
+    public BatchRetryPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts,
+            long maxElapsedMillis) {
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry delays: base "
+                    + baseDelayMillis + " millis, max " + maxDelayMillis + " millis");
+        }
+
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.maxElapsedMillis = maxElapsedMillis;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxElapsedMillis() {
+        return maxElapsedMillis;
+    }
+
+    /**
+     * @param previousDelayMillis
+     *            previous delay, 0 for the first retry
+     */
+    public long getNextDelay(long previousDelayMillis) {
+        long upperBound = Math.max(baseDelayMillis, previousDelayMillis * 3);
+        long delay = upperBound > baseDelayMillis
+                ? ThreadLocalRandom.current().nextLong(baseDelayMillis, upperBound + 1)
+                : baseDelayMillis;
+
+        return Math.min(maxDelayMillis, delay);
+    }
+
+    /**
+     * @param attempt
+     *            retry about to be executed, starting at 1
+     * @param elapsedMillis
+     *            time spent since the first try
+     * @param delayMillis
+     *            delay before the retry
+     */
+    public boolean canRetry(int attempt, long elapsedMillis, long delayMillis) {
+        return attempt <= maxAttempts && elapsedMillis + delayMillis <= maxElapsedMillis;
+    }
+
+    void sleep(long delayMillis) {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Unexpected interruption while waiting to retry");
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch executor backed by a bounded pool of platform threads. Tasks are run
+ * by the caller when every thread is busy, and rejected once it is shut down.
+ */
+public class BoundedBatchExecutor implements BatchExecutor {
+
+    private final static long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+
+    public BoundedBatchExecutor(int coreThreads, int maxThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(coreThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "lorm-dynamodb-batch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new CallerRunsUnlessShutdownPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Unlike CallerRunsPolicy, does not silently discard the tasks submitted
+     * after the shutdown: their futures would never complete.
+     */
+    private static class CallerRunsUnlessShutdownPolicy
+            implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Batch executor is shut down");
+            }
+
+            task.run();
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Paces the requests sent through the client so they stay within the read
+ * and write capacity of each table and global secondary index. Requests
+ * reserve a unit before being sent, the reservation is replaced by the
+ * capacity actually consumed when the response arrives. Scans can be limited
+ * to a fraction of the read capacity, leaving the rest to online requests.
+ * Tables and indexes without a capacity are not limited. Writes reserve the
+ * capacity of the table and of all its global secondary indexes.
+ * <p>
+ * Requests wait on the thread sending them, for the async client these are
+ * the threads of its executor: while the capacity is exhausted they are
+ * parked, delaying the other async requests too.
+ */
+public class CapacityRateLimiter {
+
+    private final ConcurrentMap<String, Throughput> throughputs = new ConcurrentHashMap<String, Throughput>();
+    private final TokenBucket.Clock clock;
+    private volatile double scanFraction = 1;
+
+    public CapacityRateLimiter() {
+        this(TokenBucket.SYSTEM_CLOCK);
+    }
+
+    CapacityRateLimiter(TokenBucket.Clock clock) {
+        this.clock = clock;
+    }
+
+    public CapacityRateLimiter withTableCapacity(String tableName,
+            double readUnitsPerSecond, double writeUnitsPerSecond) {
+        return withIndexCapacity(tableName, null, readUnitsPerSecond, writeUnitsPerSecond);
+    }
+
+    /**
+     * Capacity of a global secondary index, local ones use the capacity of
+     * their table.
+     */
+    public CapacityRateLimiter withIndexCapacity(String tableName, String indexName,
+            double readUnitsPerSecond, double writeUnitsPerSecond) {
+        if (readUnitsPerSecond <= 0 || writeUnitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid capacity of " + tableName
+                    + (indexName != null ? "." + indexName : "") + ": read "
+                    + readUnitsPerSecond + ", write " + writeUnitsPerSecond);
+        }
+
+        Throughput throughput = throughputs.putIfAbsent(getKey(tableName, indexName),
+                new Throughput(readUnitsPerSecond, writeUnitsPerSecond));
+        if (throughput != null) {
+            throughput.setCapacity(readUnitsPerSecond, writeUnitsPerSecond);
+        }
+
+        return this;
+    }
+
+    /**
+     * Capacity provisioned to the table and its global secondary indexes.
+     */
+    public CapacityRateLimiter withProvisionedCapacity(TableDescription description) {
+        ProvisionedThroughputDescription tableThroughput = description
+                .getProvisionedThroughput();
+        withTableCapacity(description.getTableName(),
+                tableThroughput.getReadCapacityUnits(),
+                tableThroughput.getWriteCapacityUnits());
+
+        if (description.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndexDescription index : description
+                    .getGlobalSecondaryIndexes()) {
+                withIndexCapacity(description.getTableName(), index.getIndexName(),
+                        index.getProvisionedThroughput().getReadCapacityUnits(),
+                        index.getProvisionedThroughput().getWriteCapacityUnits());
+            }
+        }
+
+        return this;
+    }
+
+    public double getScanFraction() {
+        return scanFraction;
+    }
+
+    /**
+     * Share of the read capacity that scans can use, 1 (the default) lets them
+     * use all of it.
+     */
+    public CapacityRateLimiter withScanFraction(double scanFraction) {
+        if (scanFraction <= 0 || scanFraction > 1) {
+            throw new IllegalArgumentException("Invalid scan fraction: " + scanFraction);
+        }
+
+        this.scanFraction = scanFraction;
+        for (Throughput throughput : throughputs.values()) {
+            throughput.scan.setUnitsPerSecond(
+                    throughput.read.getUnitsPerSecond() * scanFraction);
+        }
+
+        return this;
+    }
+
+    /**
+     * Read units left for the current second, negative when requests are
+     * waiting and NaN when the table or index is not limited.
+     */
+    public double getAvailableReadUnits(String tableName, String indexName) {
+        Throughput throughput = throughputs.get(getKey(tableName, indexName));
+        return throughput != null ? throughput.read.getAvailableUnits() : Double.NaN;
+    }
+
+    public double getAvailableWriteUnits(String tableName, String indexName) {
+        Throughput throughput = throughputs.get(getKey(tableName, indexName));
+        return throughput != null ? throughput.write.getAvailableUnits() : Double.NaN;
+    }
+
+    /**
+     * Reserves capacity for the request, waiting until it is available.
+     */
+    Reservation acquire(AmazonWebServiceRequest request) {
+        Reservation reservation = reserve(request);
+        if (reservation != null) {
+            reservation.await();
+        }
+
+        return reservation;
+    }
+
+    /**
+     * Reserves capacity for the request without waiting, null when the request
+     * is not limited.
+     */
+    Reservation reserve(AmazonWebServiceRequest request) {
+        Reservation reservation;
+        if (request instanceof GetItemRequest) {
+            reservation = new Reservation(false, false);
+            reservation.reserve(((GetItemRequest) request).getTableName(), null, 1);
+        } else if (request instanceof QueryRequest) {
+            QueryRequest queryRequest = (QueryRequest) request;
+            reservation = new Reservation(false, false);
+            reservation.reserve(queryRequest.getTableName(), queryRequest.getIndexName(),
+                    1);
+        } else if (request instanceof ScanRequest) {
+            ScanRequest scanRequest = (ScanRequest) request;
+            reservation = new Reservation(false, true);
+            reservation.reserve(scanRequest.getTableName(), scanRequest.getIndexName(),
+                    1);
+        } else if (request instanceof BatchGetItemRequest) {
+            reservation = new Reservation(false, false);
+            for (Map.Entry<String, KeysAndAttributes> entry : ((BatchGetItemRequest) request)
+                    .getRequestItems().entrySet()) {
+                // an eventually consistent read of a small item
+                reservation.reserve(entry.getKey(), null,
+                        entry.getValue().getKeys().size() * 0.5);
+            }
+        } else if (request instanceof PutItemRequest) {
+            reservation = new Reservation(true, false);
+            reservation.reserve(((PutItemRequest) request).getTableName(), null, 1);
+        } else if (request instanceof UpdateItemRequest) {
+            reservation = new Reservation(true, false);
+            reservation.reserve(((UpdateItemRequest) request).getTableName(), null, 1);
+        } else if (request instanceof DeleteItemRequest) {
+            reservation = new Reservation(true, false);
+            reservation.reserve(((DeleteItemRequest) request).getTableName(), null, 1);
+        } else if (request instanceof BatchWriteItemRequest) {
+            reservation = new Reservation(true, false);
+            for (Map.Entry<String, List<WriteRequest>> entry : ((BatchWriteItemRequest) request)
+                    .getRequestItems().entrySet()) {
+                reservation.reserve(entry.getKey(), null, entry.getValue().size());
+            }
+        } else {
+            return null;
+        }
+
+        return reservation;
+    }
+
+    private Throughput getThroughput(String tableName, String indexName) {
+        Throughput throughput = indexName != null
+                ? throughputs.get(getKey(tableName, indexName)) : null;
+
+        // local indexes and indexes without capacity use the table one
+        return throughput != null ? throughput
+                : throughputs.get(getKey(tableName, null));
+    }
+
+    private static String getKey(String tableName, String indexName) {
+        return indexName != null ? tableName + "|" + indexName : tableName;
+    }
+
+    private class Throughput {
+        private final TokenBucket read;
+        private final TokenBucket write;
+        private final TokenBucket scan;
+
+        Throughput(double readUnitsPerSecond, double writeUnitsPerSecond) {
+            this.read = new TokenBucket(readUnitsPerSecond, clock);
+            this.write = new TokenBucket(writeUnitsPerSecond, clock);
+            this.scan = new TokenBucket(readUnitsPerSecond * scanFraction, clock);
+        }
+
+        void setCapacity(double readUnitsPerSecond, double writeUnitsPerSecond) {
+            read.setUnitsPerSecond(readUnitsPerSecond);
+            write.setUnitsPerSecond(writeUnitsPerSecond);
+            scan.setUnitsPerSecond(readUnitsPerSecond * scanFraction);
+        }
+    }
+
+    /**
+     * Units taken from the buckets for a request in flight.
+     */
+    class Reservation {
+        private final boolean write;
+        private final boolean scan;
+        private final Map<TokenBucket, Double> reservedUnits = new HashMap<TokenBucket, Double>();
+        private long waitNanos;
+
+        Reservation(boolean write, boolean scan) {
+            this.write = write;
+            this.scan = scan;
+        }
+
+        private void reserve(String tableName, String indexName, double units) {
+            if (write) {
+                // the global indexes of the table are written too
+                String indexKeyPrefix = getKey(tableName, "");
+                for (Map.Entry<String, Throughput> entry : throughputs.entrySet()) {
+                    if (entry.getKey().startsWith(indexKeyPrefix)) {
+                        reserve(entry.getValue().write, units);
+                    }
+                }
+            }
+
+            Throughput throughput = getThroughput(tableName, indexName);
+            if (throughput == null) {
+                return;
+            }
+
+            reserve(write ? throughput.write : throughput.read, units);
+            if (scan) {
+                reserve(throughput.scan, units);
+            }
+        }
+
+        long getWaitNanos() {
+            return waitNanos;
+        }
+
+        private void reserve(TokenBucket bucket, double units) {
+            waitNanos = Math.max(waitNanos, bucket.reserve(units));
+            Double reserved = reservedUnits.get(bucket);
+            reservedUnits.put(bucket, reserved != null ? reserved + units : units);
+        }
+
+        private void await() {
+            if (waitNanos <= 0) {
+                return;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new DataException(
+                        "Unexpected interruption while waiting for capacity");
+            }
+        }
+
+        /**
+         * Replaces the reserved units by the capacity consumed by the request.
+         */
+        void release(Object result) {
+            cancel();
+
+            for (ConsumedCapacity consumedCapacity : MetricsRequestHandler
+                    .getConsumedCapacities(result)) {
+                String tableName = consumedCapacity.getTableName();
+                Double tableUnits = consumedCapacity.getTable() != null
+                        ? consumedCapacity.getTable().getCapacityUnits()
+                        : consumedCapacity.getCapacityUnits();
+                if (tableUnits != null) {
+                    consume(throughputs.get(getKey(tableName, null)), tableUnits);
+                }
+
+                if (consumedCapacity.getLocalSecondaryIndexes() != null) {
+                    for (Capacity capacity : consumedCapacity.getLocalSecondaryIndexes()
+                            .values()) {
+                        consume(throughputs.get(getKey(tableName, null)),
+                                capacity.getCapacityUnits());
+                    }
+                }
+                if (consumedCapacity.getGlobalSecondaryIndexes() != null) {
+                    for (Map.Entry<String, Capacity> entry : consumedCapacity
+                            .getGlobalSecondaryIndexes().entrySet()) {
+                        consume(throughputs.get(getKey(tableName, entry.getKey())),
+                                entry.getValue().getCapacityUnits());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gives back the reserved units, failed requests consume nothing.
+         */
+        void cancel() {
+            for (Map.Entry<TokenBucket, Double> entry : reservedUnits.entrySet()) {
+                entry.getKey().adjust(entry.getValue());
+            }
+            reservedUnits.clear();
+        }
+
+        private void consume(Throughput throughput, Double units) {
+            if (throughput == null || units == null) {
+                return;
+            }
+
+            (write ? throughput.write : throughput.read).adjust(-units);
+            if (scan) {
+                throughput.scan.adjust(-units);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Attribute values of the entities as last read or written, so saves can
+ * write the changed attributes alone. Entities are held weakly and by
+ * identity, their equals and hashCode are not used.
+ */
+class ChangeTracker {
+
+    private final Map<EntityReference, Map<String, AttributeValue>> snapshots = new HashMap<EntityReference, Map<String, AttributeValue>>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    synchronized void track(Object entity, Map<String, AttributeValue> snapshot) {
+        expunge();
+        snapshots.put(new EntityReference(entity, queue), snapshot);
+    }
+
+    /**
+     * Null when the entity is not tracked.
+     */
+    synchronized Map<String, AttributeValue> getSnapshot(Object entity) {
+        expunge();
+        return snapshots.get(new EntityReference(entity, null));
+    }
+
+    synchronized void untrack(Object entity) {
+        snapshots.remove(new EntityReference(entity, null));
+    }
+
+    synchronized int size() {
+        expunge();
+        return snapshots.size();
+    }
+
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            snapshots.remove(reference);
+        }
+    }
+
+    private static class EntityReference extends WeakReference<Object> {
+        private final int hash;
+
+        EntityReference(Object entity, ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.hash = System.identityHashCode(entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EntityReference)) {
+                return false;
+            }
+
+            Object entity = get();
+            return entity != null && entity == ((EntityReference) obj).get();
+        }
+    }
+
+}
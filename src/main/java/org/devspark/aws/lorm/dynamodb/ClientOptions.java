@@ -0,0 +1,148 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+
+/**
+ * Settings of the HTTP client built by {@link DynamoDBEntityManager}. Unset
+ * timeouts keep the defaults of the AWS SDK.
+ */
+public class ClientOptions {
+
+    public final static int DEFAULT_MAX_CONNECTIONS = 100;
+    public final static int DEFAULT_ASYNC_THREADS = 50;
+    public final static long DEFAULT_CONNECTION_TTL_MILLIS = 60000;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int asyncThreads = DEFAULT_ASYNC_THREADS;
+    private Integer connectionTimeoutMillis;
+    private Integer socketTimeoutMillis;
+    private Integer requestTimeoutMillis;
+    private boolean tcpKeepAlive = true;
+    private long connectionTtlMillis = DEFAULT_CONNECTION_TTL_MILLIS;
+    private boolean gzip;
+    private RetryPolicy retryPolicy = PredefinedRetryPolicies.DYNAMODB_DEFAULT;
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Size of the connection pool, it should be at least the number of
+     * concurrent requests (batch executor and async threads included).
+     */
+    public ClientOptions withMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Threads running the requests of the async repositories.
+     */
+    public ClientOptions withAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+        return this;
+    }
+
+    public Integer getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public ClientOptions withConnectionTimeoutMillis(int connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        return this;
+    }
+
+    public Integer getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public ClientOptions withSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        return this;
+    }
+
+    public Integer getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Max time of a single HTTP request, retries excluded.
+     */
+    public ClientOptions withRequestTimeoutMillis(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    /**
+     * Keeps idle pooled connections open through NATs and load balancers.
+     * Enabled by default.
+     */
+    public ClientOptions withTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+        return this;
+    }
+
+    public long getConnectionTtlMillis() {
+        return connectionTtlMillis;
+    }
+
+    /**
+     * Max age of a pooled connection, so new DynamoDB hosts get traffic. -1
+     * keeps connections forever.
+     */
+    public ClientOptions withConnectionTtlMillis(long connectionTtlMillis) {
+        this.connectionTtlMillis = connectionTtlMillis;
+        return this;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Compresses the responses, worth it for large query and scan pages.
+     * Disabled by default.
+     */
+    public ClientOptions withGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public ClientOptions withRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    ClientConfiguration toClientConfiguration() {
+        ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(maxConnections).withTcpKeepAlive(tcpKeepAlive)
+                .withConnectionTTL(connectionTtlMillis).withGzip(gzip)
+                .withRetryPolicy(retryPolicy);
+        if (connectionTimeoutMillis != null) {
+            clientConfiguration.setConnectionTimeout(connectionTimeoutMillis);
+        }
+        if (socketTimeoutMillis != null) {
+            clientConfiguration.setSocketTimeout(socketTimeoutMillis);
+        }
+        if (requestTimeoutMillis != null) {
+            clientConfiguration.setRequestTimeout(requestTimeoutMillis);
+        }
+
+        return clientConfiguration;
+    }
+
+}
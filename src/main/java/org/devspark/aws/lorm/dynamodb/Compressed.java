@@ -0,0 +1,30 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores a String field of an entity as a compressed binary attribute when
+ * its size reaches the threshold. Values are decompressed transparently
+ * when read, values written before the field was compressed are still read.
+ * Compressed fields can not be index keys nor queried, and are only supported
+ * on fields of the entity itself (not embedded ones).
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Compressed {
+
+    enum Algorithm {
+        DEFLATE, GZIP
+    }
+
+    Algorithm algorithm() default Algorithm.DEFLATE;
+
+    /**
+     * Size in bytes (UTF-8) from which values are compressed.
+     */
+    int threshold() default 1024;
+
+}
@@ -0,0 +1,142 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In memory registry keeping counters and a latency histogram per table, index
+ * and operation. It backs the JMX beans registered by
+ * {@link DynamoDBEntityManager}.
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentMap<MetricsKey, OperationMetrics> metrics = new ConcurrentHashMap<MetricsKey, OperationMetrics>();
+
+    @Override
+    public void recordRequest(String tableName, String indexName, String operation,
+            long latencyNanos, int itemCount) {
+        OperationMetrics operationMetrics = getMetrics(tableName, indexName, operation);
+        operationMetrics.latency.record(latencyNanos);
+        operationMetrics.items.add(itemCount);
+    }
+
+    @Override
+    public void recordError(String tableName, String indexName, String operation,
+            long latencyNanos, boolean throttled) {
+        OperationMetrics operationMetrics = getMetrics(tableName, indexName, operation);
+        operationMetrics.latency.record(latencyNanos);
+        operationMetrics.errors.increment();
+        if (throttled) {
+            operationMetrics.throttles.increment();
+        }
+    }
+
+    @Override
+    public void recordConsumedCapacity(String tableName, String indexName,
+            String operation, double capacityUnits) {
+        getMetrics(tableName, indexName, operation).consumedCapacity.add(capacityUnits);
+    }
+
+    @Override
+    public void recordRetry(String tableName, String operation, int unprocessedItems) {
+        getMetrics(tableName, null, operation).retries.increment();
+    }
+
+    public List<OperationStatistics> getStatistics() {
+        return getStatistics(null);
+    }
+
+    /**
+     * Statistics of the given table and its indexes, all the tables when null.
+     */
+    public List<OperationStatistics> getStatistics(String tableName) {
+        List<OperationStatistics> statistics = new ArrayList<OperationStatistics>();
+        for (Map.Entry<MetricsKey, OperationMetrics> entry : metrics.entrySet()) {
+            MetricsKey key = entry.getKey();
+            if (tableName == null || tableName.equals(key.tableName)) {
+                statistics.add(entry.getValue().snapshot(key));
+            }
+        }
+
+        return statistics;
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    private OperationMetrics getMetrics(String tableName, String indexName,
+            String operation) {
+        MetricsKey key = new MetricsKey(tableName, indexName, operation);
+        OperationMetrics operationMetrics = metrics.get(key);
+        if (operationMetrics == null) {
+            operationMetrics = new OperationMetrics();
+            OperationMetrics existing = metrics.putIfAbsent(key, operationMetrics);
+            if (existing != null) {
+                operationMetrics = existing;
+            }
+        }
+
+        return operationMetrics;
+    }
+
+    private static class OperationMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final DoubleAdder consumedCapacity = new DoubleAdder();
+
+        OperationStatistics snapshot(MetricsKey key) {
+            return new OperationStatistics(key.tableName, key.indexName, key.operation,
+                    latency.getCount(), errors.sum(), throttles.sum(), retries.sum(),
+                    items.sum(), consumedCapacity.sum(), latency.getMeanMillis(),
+                    latency.getPercentileMillis(50), latency.getPercentileMillis(99),
+                    latency.getMaxMillis());
+        }
+    }
+
+    private static class MetricsKey {
+        private final String tableName;
+        private final String indexName;
+        private final String operation;
+
+        MetricsKey(String tableName, String indexName, String operation) {
+            this.tableName = tableName;
+            this.indexName = indexName;
+            this.operation = operation;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tableName != null ? tableName.hashCode() : 0;
+            result = 31 * result + (indexName != null ? indexName.hashCode() : 0);
+            result = 31 * result + operation.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MetricsKey)) {
+                return false;
+            }
+
+            MetricsKey other = (MetricsKey) obj;
+            return (tableName == null ? other.tableName == null
+                    : tableName.equals(other.tableName))
+                    && (indexName == null ? other.indexName == null
+                            : indexName.equals(other.indexName))
+                    && operation.equals(other.operation);
+        }
+    }
+
+}
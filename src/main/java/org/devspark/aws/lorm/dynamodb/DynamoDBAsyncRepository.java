@@ -0,0 +1,618 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+/**
+ * Non blocking counterpart of {@link DynamoDBBaseRepository}, backed by an
+ * {@link AmazonDynamoDBAsync} client. Requests are issued through the async
+ * client and items are mapped on the batch executor of the repository, so the
+ * calling thread is never parked. The references of the items are fetched with
+ * the async client too, before mapping.
+ */
+public class DynamoDBAsyncRepository<T> {
+
+    private final AmazonDynamoDBAsync dynamoDBAsync;
+    private final DynamoDBBaseRepository<T> repository;
+
+    public DynamoDBAsyncRepository(AmazonDynamoDBAsync dynamoDBAsync,
+            DynamoDBBaseRepository<T> repository) {
+        this.dynamoDBAsync = dynamoDBAsync;
+        this.repository = repository;
+    }
+
+    public DynamoDBBaseRepository<T> getRepository() {
+        return repository;
+    }
+
+    /**
+     * Reads the entity through the session of the calling thread and the entity
+     * cache of the repository, as {@link DynamoDBBaseRepository#findOne(String)}
+     * does. Entities read from the table are mapped on the batch executor, so
+     * they are not added to the session of the calling thread.
+     */
+    public CompletableFuture<T> findOneAsync(final String id) {
+        if (repository.isLoadedInSession(id)) {
+            return CompletableFuture.completedFuture(repository.findOne(id));
+        }
+
+        final EntityCache cache = repository.getEntityCache();
+        if (cache != null) {
+            Item cachedItem = cache.get(id);
+            if (cachedItem != null) {
+                return EntityCache.isMissing(cachedItem)
+                        ? CompletableFuture.<T> completedFuture(null)
+                        : mapOneAsync(ItemUtils.toAttributeValues(cachedItem));
+            }
+        }
+
+        final long generation = cache != null ? cache.getGeneration() : 0;
+        CompletableFuture<GetItemResult> result = new CompletableFuture<GetItemResult>();
+        try {
+            GetItemRequest request = new GetItemRequest()
+                    .withTableName(getTableName()).withKey(repository.buildKey(id));
+            dynamoDBAsync.getItemAsync(request,
+                    new CompletingHandler<GetItemRequest, GetItemResult>(result));
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+
+        return result.thenCompose(new Function<GetItemResult, CompletableFuture<T>>() {
+            @Override
+            public CompletableFuture<T> apply(GetItemResult getItemResult) {
+                Map<String, AttributeValue> item = getItemResult.getItem();
+                if (cache != null) {
+                    cache.put(id, item != null ? ItemUtils.toItem(item) : null, generation);
+                }
+
+                if (item == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                return mapOneAsync(item);
+            }
+        });
+    }
+
+    private CompletableFuture<T> mapOneAsync(Map<String, AttributeValue> item) {
+        return mapAsync(Collections.singletonList(item))
+                .thenApply(new Function<List<T>, T>() {
+                    @Override
+                    public T apply(List<T> entities) {
+                        return entities.get(0);
+                    }
+                });
+    }
+
+    /**
+     * Fetches the entities with the given ids using BatchGetItem, keyed by id.
+     * Unprocessed keys are retried with the batch retry policy of the
+     * repository.
+     */
+    public CompletableFuture<Map<String, T>> findAllAsMapAsync(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                    (Map<String, T>) new LinkedHashMap<String, T>());
+        }
+
+        final List<CompletableFuture<List<Map<String, AttributeValue>>>> chunks = new ArrayList<CompletableFuture<List<Map<String, AttributeValue>>>>();
+        try {
+            List<Map<String, AttributeValue>> keys = new ArrayList<Map<String, AttributeValue>>();
+            for (String id : new LinkedHashSet<String>(ids)) {
+                keys.add(repository.buildKey(id));
+                if (keys.size() == DynamoDBBaseRepository.BATCH_GET_ITEMS_LIMIT) {
+                    chunks.add(batchGet(keys));
+                    keys = new ArrayList<Map<String, AttributeValue>>();
+                }
+            }
+            if (!keys.isEmpty()) {
+                chunks.add(batchGet(keys));
+            }
+        } catch (RuntimeException ex) {
+            return failedFuture(ex);
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(new Function<Void, CompletableFuture<Map<String, T>>>() {
+                    @Override
+                    public CompletableFuture<Map<String, T>> apply(Void ignored) {
+                        final List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+                        for (CompletableFuture<List<Map<String, AttributeValue>>> chunk : chunks) {
+                            items.addAll(chunk.join());
+                        }
+
+                        return mapAsync(items).thenApply(
+                                new Function<List<T>, Map<String, T>>() {
+                                    @Override
+                                    public Map<String, T> apply(List<T> entities) {
+                                        return toMap(items, entities);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    public CompletableFuture<T> saveAsync(final T instance) {
+        CompletableFuture<PutItemResult> result = new CompletableFuture<PutItemResult>();
+        try {
+            Map<String, AttributeValue> item = repository.encode(instance);
+
+            // the whole item is put, the next save of the instance puts it too
+            repository.untrack(instance);
+
+            PutItemRequest request = new PutItemRequest().withTableName(getTableName())
+                    .withItem(item);
+            dynamoDBAsync.putItemAsync(request,
+                    new CompletingHandler<PutItemRequest, PutItemResult>(result));
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+
+        return result.thenApply(new Function<PutItemResult, T>() {
+            @Override
+            public T apply(PutItemResult putItemResult) {
+                repository.evictCached(repository.getIdHandler().getIdValue(instance));
+                return instance;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> deleteByIdAsync(final String id) {
+        CompletableFuture<DeleteItemResult> result = new CompletableFuture<DeleteItemResult>();
+        try {
+            DeleteItemRequest request = new DeleteItemRequest()
+                    .withTableName(getTableName()).withKey(repository.buildKey(id));
+            dynamoDBAsync.deleteItemAsync(request,
+                    new CompletingHandler<DeleteItemRequest, DeleteItemResult>(result));
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+
+        return result.thenApply(new Function<DeleteItemResult, Void>() {
+            @Override
+            public Void apply(DeleteItemResult deleteItemResult) {
+                repository.evictCached(id);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryAsync(String attributeName, String value) {
+        return queryAsync(attributeName, value, true, 100);
+    }
+
+    /**
+     * Queries the index of the given attribute, following the result pages
+     * until maxResultSize entities are found or the index is exhausted. Like
+     * the blocking queries, entities the index does not project whole are read
+     * from the table, and attributes without index are scanned in segments
+     * when the scan fallback of the repository is enabled (unordered).
+     */
+    public CompletableFuture<List<T>> queryAsync(String attributeName, String value,
+            boolean ascendingOrder, int maxResultSize) {
+        CompletableFuture<List<T>> result;
+        try {
+            int segments = repository.getScanFallbackSegments(attributeName);
+            if (segments > 0) {
+                return scanFilteredAsync(attributeName, value, segments, maxResultSize);
+            }
+
+            boolean fetchedFromTable = repository.isFetchedFromTable(attributeName);
+            ReadOptions options = fetchedFromTable ? new ReadOptions()
+                    .withAttributeNames(repository.getIdHandler().getIdFieldName())
+                    : null;
+            QueryRequest request = repository.buildQueryRequest(attributeName, value,
+                    ascendingOrder, options);
+
+            result = queryPages(request, new ArrayList<T>(), maxResultSize,
+                    fetchedFromTable, !repository.isPartialIndex(attributeName));
+        } catch (RuntimeException ex) {
+            result = failedFuture(ex);
+        }
+
+        return result;
+    }
+
+    private CompletableFuture<List<T>> queryPages(final QueryRequest request,
+            final List<T> entities, final int maxResultSize,
+            final boolean fetchedFromTable, final boolean useSession) {
+        if (maxResultSize > 0) {
+            request.setLimit(maxResultSize - entities.size());
+        }
+
+        CompletableFuture<QueryResult> result = new CompletableFuture<QueryResult>();
+        dynamoDBAsync.queryAsync(request,
+                new CompletingHandler<QueryRequest, QueryResult>(result));
+
+        return result.thenCompose(new Function<QueryResult, CompletableFuture<List<T>>>() {
+            @Override
+            public CompletableFuture<List<T>> apply(final QueryResult queryResult) {
+                return mapIndexItemsAsync(queryResult.getItems(), fetchedFromTable,
+                        useSession).thenCompose(
+                        new Function<List<T>, CompletableFuture<List<T>>>() {
+                            @Override
+                            public CompletableFuture<List<T>> apply(List<T> page) {
+                                entities.addAll(page);
+
+                                boolean completed = maxResultSize > 0
+                                        && entities.size() >= maxResultSize;
+                                if (completed || queryResult.getLastEvaluatedKey() == null
+                                        || queryResult.getLastEvaluatedKey().isEmpty()) {
+                                    return CompletableFuture.completedFuture(entities);
+                                }
+
+                                request.setExclusiveStartKey(
+                                        queryResult.getLastEvaluatedKey());
+                                return queryPages(request, entities, maxResultSize,
+                                        fetchedFromTable, useSession);
+                            }
+                        });
+            }
+        });
+    }
+
+    private CompletableFuture<List<T>> scanFilteredAsync(String attributeName,
+            String value, int segments, final int maxResultSize) {
+        String attributeAlias = QueryPlanner.getAlias(attributeName);
+        final List<CompletableFuture<List<T>>> results = new ArrayList<CompletableFuture<List<T>>>(
+                segments);
+        for (int segment = 0; segment < segments; segment++) {
+            ScanRequest request = new ScanRequest(getTableName()).withSegment(segment)
+                    .withTotalSegments(segments)
+                    .withFilterExpression(attributeAlias + " = :attrValue")
+                    .withExpressionAttributeNames(
+                            Collections.singletonMap(attributeAlias, attributeName))
+                    .withExpressionAttributeValues(Collections.singletonMap(":attrValue",
+                            new AttributeValue().withS(value)));
+            results.add(scanPages(request, new ArrayList<T>(), maxResultSize));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, List<T>>() {
+                    @Override
+                    public List<T> apply(Void ignored) {
+                        List<T> entities = new ArrayList<T>();
+                        for (CompletableFuture<List<T>> result : results) {
+                            entities.addAll(result.join());
+                        }
+
+                        return maxResultSize > 0 && entities.size() > maxResultSize
+                                ? new ArrayList<T>(entities.subList(0, maxResultSize))
+                                : entities;
+                    }
+                });
+    }
+
+    /**
+     * Follows the pages of one scan segment. The limit of a scan applies
+     * before its filter, so pages are not limited to the missing entities.
+     */
+    private CompletableFuture<List<T>> scanPages(final ScanRequest request,
+            final List<T> entities, final int maxResultSize) {
+        CompletableFuture<ScanResult> result = new CompletableFuture<ScanResult>();
+        dynamoDBAsync.scanAsync(request,
+                new CompletingHandler<ScanRequest, ScanResult>(result));
+
+        return result.thenCompose(new Function<ScanResult, CompletableFuture<List<T>>>() {
+            @Override
+            public CompletableFuture<List<T>> apply(final ScanResult scanResult) {
+                return mapAsync(scanResult.getItems()).thenCompose(
+                        new Function<List<T>, CompletableFuture<List<T>>>() {
+                            @Override
+                            public CompletableFuture<List<T>> apply(List<T> page) {
+                                entities.addAll(page);
+
+                                boolean completed = maxResultSize > 0
+                                        && entities.size() >= maxResultSize;
+                                if (completed || scanResult.getLastEvaluatedKey() == null
+                                        || scanResult.getLastEvaluatedKey().isEmpty()) {
+                                    return CompletableFuture.completedFuture(entities);
+                                }
+
+                                request.setExclusiveStartKey(
+                                        scanResult.getLastEvaluatedKey());
+                                return scanPages(request, entities, maxResultSize);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Entities of a page read from an index: fetched from the table with the
+     * ids of the items, or mapped from the items (out of the session when they
+     * are partial).
+     */
+    private CompletableFuture<List<T>> mapIndexItemsAsync(
+            List<Map<String, AttributeValue>> items, boolean fetchedFromTable,
+            boolean useSession) {
+        if (!fetchedFromTable) {
+            return mapAsync(items, useSession);
+        }
+
+        String idFieldName = repository.getIdHandler().getIdFieldName();
+        final List<String> ids = new ArrayList<String>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            ids.add(AttributeValueCodec.toStringValue(item.get(idFieldName)));
+        }
+
+        return findAllAsMapAsync(ids).thenApply(new Function<Map<String, T>, List<T>>() {
+            @Override
+            public List<T> apply(Map<String, T> entitiesById) {
+                List<T> entities = new ArrayList<T>(entitiesById.size());
+                for (String id : ids) {
+                    T entity = entitiesById.get(id);
+                    if (entity != null) {
+                        entities.add(entity);
+                    }
+                }
+
+                return entities;
+            }
+        });
+    }
+
+    private CompletableFuture<List<T>> mapAsync(List<Map<String, AttributeValue>> items) {
+        return mapAsync(items, true);
+    }
+
+    /**
+     * Maps the items on the batch executor once their references are fetched
+     * with the async client, so mapping never blocks on a BatchGetItem.
+     */
+    private CompletableFuture<List<T>> mapAsync(
+            final List<Map<String, AttributeValue>> items, final boolean useSession) {
+        if (items.isEmpty()) {
+            return CompletableFuture.completedFuture((List<T>) new ArrayList<T>());
+        }
+
+        final List<FetchedReferences<?>> fetchedReferences = new ArrayList<FetchedReferences<?>>();
+        List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+        try {
+            ReferenceResolver resolver = repository.getReferenceResolver();
+            for (Map.Entry<Class<?>, Set<String>> entry : resolver.getReferencedIds(items)
+                    .entrySet()) {
+                DynamoDBBaseRepository<?> target = resolver
+                        .getTargetRepository(entry.getKey());
+                if (target != null) {
+                    FetchedReferences<?> references = fetchReferences(target,
+                            entry.getValue());
+                    fetchedReferences.add(references);
+                    futures.add(references.entities);
+                }
+            }
+        } catch (RuntimeException ex) {
+            return failedFuture(ex);
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(new Function<Void, List<T>>() {
+                    @Override
+                    public List<T> apply(Void ignored) {
+                        ReferenceResolver.PrefetchedReferences prefetched = new ReferenceResolver.PrefetchedReferences();
+                        try {
+                            for (FetchedReferences<?> references : fetchedReferences) {
+                                references.bind(prefetched);
+                            }
+
+                            return repository.mapAttributeValues(items, useSession);
+                        } finally {
+                            prefetched.release();
+                        }
+                    }
+                }, repository.getBatchExecutor());
+    }
+
+    private <R> FetchedReferences<R> fetchReferences(DynamoDBBaseRepository<R> target,
+            Set<String> ids) {
+        return new FetchedReferences<R>(target, ids,
+                new DynamoDBAsyncRepository<R>(dynamoDBAsync, target)
+                        .findAllAsMapAsync(ids));
+    }
+
+    private Map<String, T> toMap(List<Map<String, AttributeValue>> items,
+            List<T> entities) {
+        String idFieldName = repository.getIdHandler().getIdFieldName();
+        Map<String, T> entitiesById = new LinkedHashMap<String, T>();
+        for (int i = 0; i < items.size(); i++) {
+            entitiesById.put(AttributeValueCodec.toStringValue(items.get(i).get(
+                    idFieldName)), entities.get(i));
+        }
+
+        return entitiesById;
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> batchGet(
+            List<Map<String, AttributeValue>> keys) {
+        Map<String, KeysAndAttributes> requestItems = new HashMap<String, KeysAndAttributes>();
+        requestItems.put(getTableName(), new KeysAndAttributes().withKeys(keys));
+
+        return batchGet(requestItems, new ArrayList<Map<String, AttributeValue>>(),
+                System.currentTimeMillis(), 0, 0);
+    }
+
+    /**
+     * Keeps requesting the unprocessed keys until they are fully processed or
+     * retries are exhausted. Retries are delayed by a timer, not by sleeping.
+     */
+    private CompletableFuture<List<Map<String, AttributeValue>>> batchGet(
+            Map<String, KeysAndAttributes> requestItems,
+            final List<Map<String, AttributeValue>> items, final long startMillis,
+            final long delayMillis, final int tryCount) {
+        CompletableFuture<BatchGetItemResult> result = new CompletableFuture<BatchGetItemResult>();
+        dynamoDBAsync.batchGetItemAsync(
+                new BatchGetItemRequest().withRequestItems(requestItems),
+                new CompletingHandler<BatchGetItemRequest, BatchGetItemResult>(result));
+
+        return result.thenCompose(
+                new Function<BatchGetItemResult, CompletableFuture<List<Map<String, AttributeValue>>>>() {
+                    @Override
+                    public CompletableFuture<List<Map<String, AttributeValue>>> apply(
+                            BatchGetItemResult batchResult) {
+                        String tableName = getTableName();
+                        List<Map<String, AttributeValue>> tableItems = batchResult
+                                .getResponses().get(tableName);
+                        if (tableItems != null) {
+                            items.addAll(tableItems);
+                        }
+
+                        final Map<String, KeysAndAttributes> unprocessedKeys = batchResult
+                                .getUnprocessedKeys();
+                        if (unprocessedKeys == null || unprocessedKeys.isEmpty()) {
+                            return CompletableFuture.completedFuture(items);
+                        }
+
+                        KeysAndAttributes tableKeys = unprocessedKeys.get(tableName);
+                        int unprocessedCount = tableKeys != null
+                                && tableKeys.getKeys() != null
+                                        ? tableKeys.getKeys().size() : 0;
+
+                        BatchRetryPolicy policy = repository.getBatchRetryPolicy();
+                        final long nextDelayMillis = policy.getNextDelay(delayMillis);
+                        if (!policy.canRetry(tryCount + 1,
+                                System.currentTimeMillis() - startMillis,
+                                nextDelayMillis)) {
+                            throw new DataException("Could not read " + unprocessedCount
+                                    + " keys from table " + tableName + " after "
+                                    + tryCount + " retries");
+                        }
+
+                        repository.recordRetry("BatchGetItem", unprocessedCount);
+                        return delay(nextDelayMillis).thenCompose(
+                                new Function<Void, CompletableFuture<List<Map<String, AttributeValue>>>>() {
+                                    @Override
+                                    public CompletableFuture<List<Map<String, AttributeValue>>> apply(
+                                            Void ignored) {
+                                        return batchGet(unprocessedKeys, items,
+                                                startMillis, nextDelayMillis,
+                                                tryCount + 1);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    private static CompletableFuture<Void> delay(long delayMillis) {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        RetryTimer.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(null);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+
+        return future;
+    }
+
+    private static <V> CompletableFuture<V> failedFuture(Throwable ex) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    private String getTableName() {
+        return repository.getTable().getTableName();
+    }
+
+    /**
+     * Bridges the callbacks of the async client to a {@link CompletableFuture}.
+     */
+    private static class CompletingHandler<REQUEST extends AmazonWebServiceRequest, RESULT>
+            implements AsyncHandler<REQUEST, RESULT> {
+
+        private final CompletableFuture<RESULT> future;
+
+        CompletingHandler(CompletableFuture<RESULT> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            future.completeExceptionally(exception);
+        }
+
+        @Override
+        public void onSuccess(REQUEST request, RESULT result) {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Entities referenced by a page of items, fetched from their repository.
+     */
+    private static class FetchedReferences<R> {
+        private final DynamoDBBaseRepository<R> repository;
+        private final Set<String> ids;
+        private final CompletableFuture<Map<String, R>> entities;
+
+        FetchedReferences(DynamoDBBaseRepository<R> repository, Set<String> ids,
+                CompletableFuture<Map<String, R>> entities) {
+            this.repository = repository;
+            this.ids = ids;
+            this.entities = entities;
+        }
+
+        void bind(ReferenceResolver.PrefetchedReferences prefetched) {
+            Map<String, R> fetched = new HashMap<String, R>(entities.join());
+
+            // remember missing references too, they should not be fetched again
+            for (String id : ids) {
+                if (!fetched.containsKey(id)) {
+                    fetched.put(id, null);
+                }
+            }
+
+            prefetched.bind(repository, fetched);
+        }
+    }
+
+    /**
+     * Single daemon thread completing the delays between batch retries.
+     */
+    private static class RetryTimer {
+        static final ScheduledExecutorService INSTANCE = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "lorm-async-retry-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
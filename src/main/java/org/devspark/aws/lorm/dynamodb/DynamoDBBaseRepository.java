@@ -1,58 +1,97 @@
 package org.devspark.aws.lorm.dynamodb;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.devspark.aws.lorm.EntityManager;
 import org.devspark.aws.lorm.Repository;
 import org.devspark.aws.lorm.SchemaSupport;
 import org.devspark.aws.lorm.exceptions.DataException;
 import org.devspark.aws.lorm.exceptions.DataValidationException;
 import org.devspark.aws.lorm.mapping.EntityToItemMapper;
 import org.devspark.aws.lorm.mapping.ItemToEntityMapper;
-import org.devspark.aws.lorm.schema.AttributeConstraint;
 import org.devspark.aws.lorm.schema.AttributeDefinition;
 import org.devspark.aws.lorm.schema.Index;
 import org.devspark.aws.lorm.schema.validation.EntitySchemaSupport;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
+import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.ScanOutcome;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
-import com.amazonaws.services.dynamodbv2.document.internal.IteratorSupport;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
 import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
 import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
-// TODO log (not AWS logger) computing per query, specially when fetching references
 public class DynamoDBBaseRepository<T> extends DynamoDBSchemaSupport<T>
         implements Repository<T>, SchemaSupport<T> {
 
     private final EntityToItemMapper entityToItemMapper;
     private final ItemToEntityMapper<T> itemToEntityMapper;
-    private final int batchCoreThreadCount;
-    private final int batchMaxThreadCount;
+    private final AmazonDynamoDB client;
+    private final AttributeCompressor compressor;
+    private final AttributeValueCodec<T> codec;
+    private volatile BatchExecutor batchExecutor;
+    private final ReferenceResolver referenceResolver;
+    private final QueryPlanner queryPlanner;
+    private volatile int scanFallbackSegments;
+    private volatile ChangeTracker changeTracker;
+    private final DynamoDBEntityManager sessionManager;
+    private volatile BatchRetryPolicy batchRetryPolicy = new BatchRetryPolicy();
+    private volatile EntityCache entityCache;
+    private volatile MetricsRegistry metricsRegistry;
+    private final ThreadLocal<Map<String, T>> prefetchedEntities = new ThreadLocal<Map<String, T>>();
 
     protected final Log log = LogFactory.getLog(getClass());
 
     protected final static int BATCH_WRITE_ITEMS_LIMIT = 25;
     protected final static int BATCH_DELETE_ITEMS_LIMIT = 25;
-    protected final static int BATCH_TIMEOUT_MILLIS = 10000;
+    protected final static int BATCH_GET_ITEMS_LIMIT = 100;
 
     private final static int BATCH_EXECUTOR_DEFAULT_CORE_THREADS = 5;
     private final static int BATCH_EXECUTOR_DEFAULT_MAX_THREADS = 25;
@@ -71,133 +110,1436 @@ public class DynamoDBBaseRepository<T> extends DynamoDBSchemaSupport<T>
             ItemToEntityMapper<T> itemToEntityMapper,
             EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
             int batchCoreThreadCount, int batchMaxThreadCount) {
+        this(dynamoDB, entityToItemMapper, itemToEntityMapper, entitySchemaSupport,
+                entityClass, batchCoreThreadCount, batchMaxThreadCount, null);
+    }
+
+    public DynamoDBBaseRepository(DynamoDB dynamoDB,
+            EntityToItemMapper entityToItemMapper,
+            ItemToEntityMapper<T> itemToEntityMapper,
+            EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
+            EntityManager entityManager) {
+        this(dynamoDB, entityToItemMapper, itemToEntityMapper, entitySchemaSupport,
+                entityClass, BATCH_EXECUTOR_DEFAULT_CORE_THREADS,
+                BATCH_EXECUTOR_DEFAULT_MAX_THREADS, entityManager);
+    }
+
+    public DynamoDBBaseRepository(DynamoDB dynamoDB,
+            EntityToItemMapper entityToItemMapper,
+            ItemToEntityMapper<T> itemToEntityMapper,
+            EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
+            int batchCoreThreadCount, int batchMaxThreadCount,
+            EntityManager entityManager) {
+        this(dynamoDB, null, entityToItemMapper, itemToEntityMapper, entitySchemaSupport,
+                entityClass, batchCoreThreadCount, batchMaxThreadCount, entityManager);
+    }
+
+    /**
+     * Repository reading and writing items with the low level client, entities
+     * are mapped straight from and to attribute values.
+     */
+    public DynamoDBBaseRepository(AmazonDynamoDB client,
+            EntityToItemMapper entityToItemMapper,
+            ItemToEntityMapper<T> itemToEntityMapper,
+            EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
+            EntityManager entityManager) {
+        this(new DynamoDB(client), client, entityToItemMapper, itemToEntityMapper,
+                entitySchemaSupport, entityClass, entityManager);
+    }
+
+    /**
+     * Same as above, sharing the document client of the entity manager.
+     */
+    public DynamoDBBaseRepository(DynamoDB dynamoDB, AmazonDynamoDB client,
+            EntityToItemMapper entityToItemMapper,
+            ItemToEntityMapper<T> itemToEntityMapper,
+            EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
+            EntityManager entityManager) {
+        this(dynamoDB, client, entityToItemMapper, itemToEntityMapper,
+                entitySchemaSupport, entityClass, BATCH_EXECUTOR_DEFAULT_CORE_THREADS,
+                BATCH_EXECUTOR_DEFAULT_MAX_THREADS, entityManager);
+    }
+
+    private DynamoDBBaseRepository(DynamoDB dynamoDB, AmazonDynamoDB client,
+            EntityToItemMapper entityToItemMapper,
+            ItemToEntityMapper<T> itemToEntityMapper,
+            EntitySchemaSupport entitySchemaSupport, Class<T> entityClass,
+            int batchCoreThreadCount, int batchMaxThreadCount,
+            EntityManager entityManager) {
         super(dynamoDB, entitySchemaSupport, entityClass);
+        this.client = client;
+        this.compressor = new AttributeCompressor(entityClass);
+        this.codec = new AttributeValueCodec<T>(entityToItemMapper, this, compressor);
         this.entityToItemMapper = entityToItemMapper;
         this.itemToEntityMapper = itemToEntityMapper;
-        this.batchCoreThreadCount = batchCoreThreadCount;
-        this.batchMaxThreadCount = batchMaxThreadCount;
+        this.batchExecutor = new BoundedBatchExecutor(batchCoreThreadCount,
+                batchMaxThreadCount);
+        this.referenceResolver = new ReferenceResolver(entityManager, entityClass);
+        this.queryPlanner = new QueryPlanner(getTable(), getIdHandler().getIdFieldName(),
+                getRangeKeyName(), getEntityIndexes());
+        this.sessionManager = entityManager instanceof DynamoDBEntityManager
+                ? (DynamoDBEntityManager) entityManager : null;
+    }
+
+    ReferenceResolver getReferenceResolver() {
+        return referenceResolver;
+    }
+
+    public BatchExecutor getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * Executor for batch operations, usually shared by all the repositories of
+     * the entity manager.
+     */
+    public void setBatchExecutor(BatchExecutor batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Enables a read-through cache in front of findOne and findAll by ids, null
+     * disables it. Entries are invalidated by the saves and deletes of this
+     * repository.
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    public EntityCacheStatistics getCacheStatistics() {
+        EntityCache cache = entityCache;
+        return cache != null ? cache.getStatistics() : null;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Registry of the batch retries, the requests themselves are measured by
+     * the client of the entity manager.
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public BatchRetryPolicy getBatchRetryPolicy() {
+        return batchRetryPolicy;
+    }
+
+    /**
+     * Retry policy for the unprocessed items of batch reads, writes and
+     * deletes.
+     */
+    public void setBatchRetryPolicy(BatchRetryPolicy batchRetryPolicy) {
+        this.batchRetryPolicy = batchRetryPolicy;
+    }
+
+    public boolean isChangeTracking() {
+        return changeTracker != null;
+    }
+
+    /**
+     * Keeps the attributes of the entities read (with default read options)
+     * and saved, so saving a tracked entity updates the changed attributes
+     * alone. Disabled by default, requires the low level client.
+     */
+    public void setChangeTracking(boolean changeTracking) {
+        this.changeTracker = changeTracking ? new ChangeTracker() : null;
+    }
+
+    public int getScanFallbackSegments() {
+        return scanFallbackSegments;
+    }
+
+    /**
+     * Queries on attributes without index are run as a parallel scan of the
+     * given number of segments filtering on the attribute, instead of being
+     * rejected. Zero (the default) disables the fallback.
+     */
+    public void setScanFallbackSegments(int scanFallbackSegments) {
+        this.scanFallbackSegments = scanFallbackSegments;
+    }
+
+    /**
+     * Access path and estimated cost of the queries on the given attribute.
+     * Describes the table when its description is not known yet.
+     */
+    public QueryPlan explain(String attributeName) {
+        TableDescription description = getTable().getDescription();
+        if (description == null) {
+            try {
+                description = getTable().describe();
+            } catch (ResourceNotFoundException ex) {
+                // no estimates
+            }
+        }
+
+        return queryPlanner.explain(attributeName, scanFallbackSegments, description);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.jstorni.core.dynamodb.Repository#findOne(java.lang.String)
+     */
+    @Override
+    public T findOne(String id) {
+        Map<String, T> prefetched = prefetchedEntities.get();
+        if (prefetched != null && prefetched.containsKey(id)) {
+            return prefetched.get(id);
+        }
+
+        EntitySession session = getSession();
+        if (session != null && session.contains(getEntityClass(), id)) {
+            return session.get(getEntityClass(), id);
+        }
+
+        T entity;
+        if (client != null && entityCache == null) {
+            Map<String, AttributeValue> item = client.getItem(
+                    new GetItemRequest(getTable().getTableName(), buildKey(id))).getItem();
+            entity = item != null ? itemToEntityMapper.map(codec.decode(item)) : null;
+            track(entity, item, attributeValueItems);
+        } else {
+            Item item = getItem(id);
+            entity = item != null ? itemToEntityMapper.map(extractAttrsFromItem(item))
+                    : null;
+            track(entity, item, documentItems);
+        }
+
+        if (session != null) {
+            session.put(getEntityClass(), id, entity);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Reads the entity with the given id and range key, for tables with a
+     * composite primary key.
+     */
+    public T findOne(String id, Object rangeKey) {
+        if (getRangeKeyName() == null) {
+            return findOne(id);
+        }
+
+        Map<String, AttributeValue> key = buildKey(id, rangeKey);
+        if (client != null) {
+            Map<String, AttributeValue> item = client
+                    .getItem(new GetItemRequest(getTable().getTableName(), key)).getItem();
+            return item != null ? mapAttributeValues(Collections.singletonList(item)).get(0)
+                    : null;
+        }
+
+        Item item = getTable().getItem(new PrimaryKey(getIdHandler().getIdFieldName(), id,
+                getRangeKeyName(), rangeKey));
+        return item != null ? mapItems(Collections.singletonList(item)).get(0) : null;
+    }
+
+    /**
+     * Reads the entity with the given consistency and projection. Reads with
+     * options other than the defaults bypass the entity cache and the session.
+     */
+    public T findOne(String id, ReadOptions options) {
+        if (options == null || options.isDefault()) {
+            return findOne(id);
+        }
+
+        GetItemSpec spec = new GetItemSpec().withPrimaryKey(buildPrimaryKey(id))
+                .withConsistentRead(options.isConsistentRead());
+        if (options.isProjected()) {
+            Map<String, String> nameMap = new HashMap<String, String>();
+            spec.withProjectionExpression(options.buildProjectionExpression(
+                    getIdHandler().getIdFieldName(), nameMap)).withNameMap(nameMap);
+        }
+
+        Item item = getTable().getItem(spec);
+        if (item == null) {
+            return null;
+        }
+
+        return mapItems(Collections.singletonList(item), documentItems, false).get(0);
+    }
+
+    /**
+     * Entities of tables with a composite primary key are not kept in the
+     * session, their ids are not unique.
+     */
+    private EntitySession getSession() {
+        return sessionManager != null && getRangeKeyName() == null
+                ? sessionManager.getCurrentSession() : null;
+    }
+
+    boolean isPrefetched(String id) {
+        Map<String, T> prefetched = prefetchedEntities.get();
+        return prefetched != null && prefetched.containsKey(id);
+    }
+
+    boolean isLoadedInSession(String id) {
+        EntitySession session = getSession();
+        return session != null && session.contains(getEntityClass(), id);
+    }
+
+    private void registerInSession(String id, T entity) {
+        EntitySession session = getSession();
+        if (session != null && id != null) {
+            session.put(getEntityClass(), id, entity);
+        }
+    }
+
+    private Item getItem(String id) {
+        EntityCache cache = entityCache;
+        if (cache == null) {
+            return getTable().getItem(buildPrimaryKey(id));
+        }
+
+        Item cachedItem = cache.get(id);
+        if (cachedItem != null) {
+            return EntityCache.isMissing(cachedItem) ? null : cachedItem;
+        }
+
+        long generation = cache.getGeneration();
+        Item item = getTable().getItem(buildPrimaryKey(id));
+        cache.put(id, item, generation);
+
+        return item;
+    }
+
+    /**
+     * Fetches the entities with the given ids using BatchGetItem. Entities are
+     * returned in the same order as the ids, missing ids are skipped.
+     */
+    public List<T> findAll(Collection<String> ids) {
+        return findAll(ids, null);
+    }
+
+    public List<T> findAll(Collection<String> ids, ReadOptions options) {
+        Map<String, T> entitiesById = findAllAsMap(ids, options);
+
+        List<T> entities = new ArrayList<T>(entitiesById.size());
+        for (String id : ids) {
+            T entity = entitiesById.get(id);
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+
+        return entities;
+    }
+
+    /**
+     * Fetches the entities with the given ids using BatchGetItem, keyed by id.
+     * Keys are split in chunks of {@value #BATCH_GET_ITEMS_LIMIT} which are
+     * fetched concurrently.
+     */
+    public Map<String, T> findAllAsMap(Collection<String> ids) {
+        return findAllAsMap(ids, null);
+    }
+
+    public Map<String, T> findAllAsMap(Collection<String> ids, ReadOptions options) {
+        Map<String, T> entities = new LinkedHashMap<String, T>();
+        if (ids == null || ids.isEmpty()) {
+            return entities;
+        }
+
+        boolean defaultRead = options == null || options.isDefault();
+        Map<String, Item> itemsById = defaultRead ? fetchItems(ids)
+                : fetchUncachedItems(ids, options);
+        List<String> foundIds = new ArrayList<String>();
+        List<Item> foundItems = new ArrayList<Item>();
+        for (String id : ids) {
+            Item item = itemsById.remove(id);
+            if (item != null) {
+                foundIds.add(id);
+                foundItems.add(item);
+            }
+        }
+
+        List<T> foundEntities = mapItems(foundItems, documentItems, defaultRead);
+        for (int i = 0; i < foundIds.size(); i++) {
+            entities.put(foundIds.get(i), foundEntities.get(i));
+        }
+
+        return entities;
+    }
+
+    private Map<String, Item> fetchItems(Collection<String> ids) {
+        EntityCache cache = entityCache;
+        if (cache == null) {
+            return fetchUncachedItems(ids, null);
+        }
+
+        Map<String, Item> itemsById = new HashMap<String, Item>();
+        List<String> uncachedIds = new ArrayList<String>();
+        for (String id : new LinkedHashSet<String>(ids)) {
+            if (id == null) {
+                continue;
+            }
+
+            Item cachedItem = cache.get(id);
+            if (cachedItem == null) {
+                uncachedIds.add(id);
+            } else if (!EntityCache.isMissing(cachedItem)) {
+                itemsById.put(id, cachedItem);
+            }
+        }
+
+        if (!uncachedIds.isEmpty()) {
+            long generation = cache.getGeneration();
+            Map<String, Item> fetchedItems = fetchUncachedItems(uncachedIds, null);
+            for (String id : uncachedIds) {
+                cache.put(id, fetchedItems.get(id), generation);
+            }
+            itemsById.putAll(fetchedItems);
+        }
+
+        return itemsById;
+    }
+
+    private Map<String, Item> fetchUncachedItems(Collection<String> ids,
+            final ReadOptions options) {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        for (String id : new LinkedHashSet<String>(ids)) {
+            if (id == null) {
+                continue;
+            }
+
+            chunk.add(id);
+            if (chunk.size() == BATCH_GET_ITEMS_LIMIT) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        Map<String, Item> itemsById = new HashMap<String, Item>();
+        if (chunks.size() == 1) {
+            addItemsById(itemsById, doBatchGet(chunks.get(0), options));
+            return itemsById;
+        }
+
+        List<Future<List<Item>>> results = new ArrayList<Future<List<Item>>>();
+        for (List<String> chunkIds : chunks) {
+            results.add(submitBatchTask(new Callable<List<Item>>() {
+                @Override
+                public List<Item> call() throws Exception {
+                    return doBatchGet(chunkIds, options);
+                }
+            }));
+        }
+
+        for (List<Item> items : waitForResults(results)) {
+            addItemsById(itemsById, items);
+        }
+
+        return itemsById;
+    }
+
+    private void addItemsById(Map<String, Item> itemsById, List<Item> items) {
+        for (Item item : items) {
+            String id = getItemId(item);
+            if (id != null) {
+                itemsById.put(id, item);
+            }
+        }
+    }
+
+    private String getItemId(Item item) {
+        Object id = item.get(getIdHandler().getIdFieldName());
+        return id != null ? id.toString() : null;
+    }
+
+    private List<Item> doBatchGet(List<String> ids, ReadOptions options) {
+        PrimaryKey[] primaryKeys = new PrimaryKey[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            primaryKeys[i] = buildPrimaryKey(ids.get(i));
+        }
+
+        String tableName = getTable().getTableName();
+        TableKeysAndAttributes keysAndAttributes = new TableKeysAndAttributes(tableName)
+                .withPrimaryKeys(primaryKeys);
+        if (options != null) {
+            keysAndAttributes.withConsistentRead(options.isConsistentRead());
+            if (options.isProjected()) {
+                Map<String, String> nameMap = new HashMap<String, String>();
+                keysAndAttributes.withProjectionExpression(options
+                        .buildProjectionExpression(getIdHandler().getIdFieldName(),
+                                nameMap))
+                        .withNameMap(nameMap);
+            }
+        }
+
+        BatchGetItemOutcome outcome = getDynamoDB().batchGetItem(keysAndAttributes);
+
+        List<Item> items = new ArrayList<Item>();
+
+        // keep trying until keys are fully processed or retries are exhausted
+        long startMillis = System.currentTimeMillis();
+        long delayMillis = 0;
+        int tryCount = 0;
+        while (true) {
+            List<Item> tableItems = outcome.getTableItems().get(tableName);
+            if (tableItems != null) {
+                items.addAll(tableItems);
+            }
+
+            Map<String, KeysAndAttributes> unprocessedKeys = outcome
+                    .getUnprocessedKeys();
+            if (unprocessedKeys == null || unprocessedKeys.isEmpty()) {
+                break;
+            }
+
+            KeysAndAttributes tableKeys = unprocessedKeys.get(tableName);
+            int unprocessedCount = tableKeys != null && tableKeys.getKeys() != null
+                    ? tableKeys.getKeys().size() : 0;
+
+            delayMillis = batchRetryPolicy.getNextDelay(delayMillis);
+            if (!batchRetryPolicy.canRetry(++tryCount,
+                    System.currentTimeMillis() - startMillis, delayMillis)) {
+                throw new DataException("Could not read " + unprocessedCount
+                        + " keys from table " + tableName + " after " + (tryCount - 1)
+                        + " retries");
+            }
+
+            if (log.isWarnEnabled()) {
+                log.warn("Going to retry to get " + unprocessedCount
+                        + " unprocessed keys in " + delayMillis + " millis (try #"
+                        + tryCount + ")");
+            }
+
+            recordRetry("BatchGetItem", unprocessedCount);
+            batchRetryPolicy.sleep(delayMillis);
+            outcome = getDynamoDB().batchGetItemUnprocessed(unprocessedKeys);
+        }
+
+        return items;
+    }
+
+    protected <V> Future<V> submitBatchTask(Callable<V> task) {
+        return executeBatchTask(new FutureTask<V>(task));
+    }
+
+    protected Future<Void> submitBatchTask(Runnable task) {
+        return executeBatchTask(new FutureTask<Void>(task, null));
+    }
+
+    /**
+     * Rejected tasks are cancelled, nobody should wait for them.
+     */
+    private <V> Future<V> executeBatchTask(FutureTask<V> future) {
+        try {
+            batchExecutor.execute(future);
+        } catch (RejectedExecutionException ex) {
+            future.cancel(false);
+            throw new DataException("Could not run batch task on table "
+                    + getTable().getTableName() + ": " + ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * Waits for all the batch tasks to complete. When a task fails, the pending
+     * ones are cancelled and its error is thrown.
+     */
+    protected <V> List<V> waitForResults(List<Future<V>> futures) {
+        List<V> results = new ArrayList<V>(futures.size());
+        try {
+            for (Future<V> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new DataException("Error while executing batch on table "
+                    + getTable().getTableName() + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new DataException("Error while executing batch on table "
+                    + getTable().getTableName() + ". Unexpected interruption");
+        }
+
+        return results;
+    }
+
+    private void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Maps a page of items, fetching the ManyToOne references of all of them
+     * with one batched lookup per referenced entity.
+     */
+    protected List<T> mapItems(List<Item> items) {
+        return mapItems(items, documentItems, true);
+    }
+
+    /**
+     * Same as {@link #mapItems(List)} for items read with the low level client.
+     */
+    List<T> mapAttributeValues(List<Map<String, AttributeValue>> items) {
+        return mapAttributeValues(items, true);
+    }
+
+    List<T> mapAttributeValues(List<Map<String, AttributeValue>> items,
+            boolean useSession) {
+        return mapItems(items, attributeValueItems, useSession);
+    }
+
+    /**
+     * Partially fetched items are mapped without the session, they should not
+     * replace the entities it holds.
+     */
+    private <I> List<T> mapItems(List<I> items, ItemAccessor<I> accessor,
+            boolean useSession) {
+        List<T> entities = new ArrayList<T>(items.size());
+        if (items.isEmpty()) {
+            return entities;
+        }
+
+        // entities already loaded in the session keep their identity
+        EntitySession session = useSession ? getSession() : null;
+        List<I> itemsToMap = items;
+        if (session != null) {
+            itemsToMap = new ArrayList<I>(items.size());
+            for (I item : items) {
+                if (session.get(getEntityClass(), accessor.getId(item)) == null) {
+                    itemsToMap.add(item);
+                }
+            }
+        }
+
+        ReferenceResolver.PrefetchedReferences references = accessor.prefetch(itemsToMap);
+        try {
+            for (I item : items) {
+                String id = accessor.getId(item);
+                T entity = session != null && id != null
+                        ? session.get(getEntityClass(), id) : null;
+                if (entity == null) {
+                    entity = itemToEntityMapper.map(accessor.getAttributes(item));
+                    if (session != null && id != null) {
+                        session.put(getEntityClass(), id, entity);
+                    }
+                    if (useSession) {
+                        track(entity, item, accessor);
+                    }
+                }
+
+                entities.add(entity);
+            }
+        } finally {
+            references.release();
+        }
+
+        return entities;
+    }
+
+    /**
+     * Forgets the attributes of an instance written as a whole item outside of
+     * save, so its next save puts the whole item too.
+     */
+    void untrack(T instance) {
+        ChangeTracker tracker = changeTracker;
+        if (tracker != null) {
+            tracker.untrack(instance);
+        }
+    }
+
+    /**
+     * Keeps the attributes of a fully read entity when tracking changes.
+     */
+    private <I> void track(T entity, I item, ItemAccessor<I> accessor) {
+        ChangeTracker tracker = changeTracker;
+        if (tracker != null && entity != null) {
+            tracker.track(entity, accessor.getAttributeValues(item));
+        }
+    }
+
+    /**
+     * Reads the id, references and attributes of the items of the Document
+     * API and of the low level client alike.
+     */
+    private interface ItemAccessor<I> {
+        String getId(I item);
+
+        Map<AttributeDefinition, Object> getAttributes(I item);
+
+        Map<String, AttributeValue> getAttributeValues(I item);
+
+        ReferenceResolver.PrefetchedReferences prefetch(List<I> items);
+    }
+
+    private final ItemAccessor<Item> documentItems = new ItemAccessor<Item>() {
+        @Override
+        public String getId(Item item) {
+            return getItemId(item);
+        }
+
+        @Override
+        public Map<AttributeDefinition, Object> getAttributes(Item item) {
+            return extractAttrsFromItem(item);
+        }
+
+        @Override
+        public Map<String, AttributeValue> getAttributeValues(Item item) {
+            return ItemUtils.toAttributeValues(item);
+        }
+
+        @Override
+        public ReferenceResolver.PrefetchedReferences prefetch(List<Item> items) {
+            return referenceResolver.prefetch(items);
+        }
+    };
+
+    private final ItemAccessor<Map<String, AttributeValue>> attributeValueItems = new ItemAccessor<Map<String, AttributeValue>>() {
+        @Override
+        public String getId(Map<String, AttributeValue> item) {
+            return AttributeValueCodec
+                    .toStringValue(item.get(getIdHandler().getIdFieldName()));
+        }
+
+        @Override
+        public Map<AttributeDefinition, Object> getAttributes(
+                Map<String, AttributeValue> item) {
+            return codec.decode(item);
+        }
+
+        @Override
+        public Map<String, AttributeValue> getAttributeValues(
+                Map<String, AttributeValue> item) {
+            return item;
+        }
+
+        @Override
+        public ReferenceResolver.PrefetchedReferences prefetch(
+                List<Map<String, AttributeValue>> items) {
+            return referenceResolver.prefetchAttributeValues(items);
+        }
+    };
+
+    /**
+     * Maps the pages read with the low level client until the last one or
+     * until maxResultSize entities are mapped. The request is reused.
+     */
+    private List<T> mapQueryPages(QueryRequest request, int maxResultSize,
+            boolean useSession) {
+        List<T> entities = new ArrayList<T>();
+
+        try {
+            do {
+                if (maxResultSize > 0) {
+                    request.setLimit(maxResultSize - entities.size());
+                }
+
+                QueryResult result = client.query(request);
+                entities.addAll(mapItems(result.getItems(), attributeValueItems,
+                        useSession));
+                request.setExclusiveStartKey(result.getLastEvaluatedKey());
+            } while (hasMorePages(request.getExclusiveStartKey(), entities.size(),
+                    maxResultSize));
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+        }
+
+        return entities;
+    }
+
+    private List<T> mapScanPages(ScanRequest request, boolean useSession) {
+        List<T> entities = new ArrayList<T>();
+
+        try {
+            do {
+                ScanResult result = client.scan(request);
+                entities.addAll(mapItems(result.getItems(), attributeValueItems,
+                        useSession));
+                request.setExclusiveStartKey(result.getLastEvaluatedKey());
+            } while (hasMorePages(request.getExclusiveStartKey(), entities.size(), 0));
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+        }
+
+        return entities;
+    }
+
+    private static boolean hasMorePages(Map<String, AttributeValue> lastEvaluatedKey,
+            int resultSize, int maxResultSize) {
+        return lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty()
+                && (maxResultSize <= 0 || resultSize < maxResultSize);
+    }
+
+    private <R> List<T> mapPages(ItemCollection<R> itemCollection, int maxResultSize,
+            boolean useSession) {
+        List<T> entities = new ArrayList<T>();
+
+        try {
+            for (Page<Item, R> page : itemCollection.pages()) {
+                List<Item> items = new ArrayList<Item>(page.size());
+                for (Item item : page) {
+                    if (maxResultSize > 0
+                            && entities.size() + items.size() >= maxResultSize) {
+                        break;
+                    }
+                    items.add(item);
+                }
+
+                entities.addAll(mapItems(items, documentItems, useSession));
+                if (maxResultSize > 0 && entities.size() >= maxResultSize) {
+                    break;
+                }
+            }
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+        }
+
+        return entities;
+    }
+
+    Map<String, T> bindPrefetched(Map<String, T> entities) {
+        Map<String, T> previous = prefetchedEntities.get();
+        if (previous != null) {
+            Map<String, T> merged = new HashMap<String, T>(previous);
+            merged.putAll(entities);
+            entities = merged;
+        }
+
+        prefetchedEntities.set(entities);
+        return previous;
+    }
+
+    void restorePrefetched(Map<String, T> previous) {
+        if (previous == null) {
+            prefetchedEntities.remove();
+        } else {
+            prefetchedEntities.set(previous);
+        }
+    }
+
+    Map<AttributeDefinition, Object> extractAttrsFromItem(Item item) {
+        Map<AttributeDefinition, Object> attributes = new HashMap<AttributeDefinition, Object>(
+                item.numberOfAttributes() * 4 / 3 + 1);
+
+        for (Map.Entry<String, Object> attribute : item.attributes()) {
+            Object itemValue = compressor.decompress(attribute.getKey(),
+                    attribute.getValue());
+            if (itemValue == null) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Expected attribute " + attribute.getKey() + " of table "
+                            + getTable() + " not found");
+                }
+                continue;
+            }
+
+            attributes.put(getAttributeDefinition(attribute.getKey(), itemValue.getClass()),
+                    itemValue);
+        }
+
+        return attributes;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.jstorni.core.dynamodb.Repository#findAll()
+     */
+    @Override
+    public List<T> findAll() {
+        // TODO set a default output limit
+        // findAll(String, int) scans the table page by page
+        if (client != null) {
+            return mapScanPages(new ScanRequest(getTable().getTableName()), true);
+        }
+
+        ItemCollection<ScanOutcome> scannedItems = getTable().scan();
+
+        return mapPages(scannedItems, 0, true);
+    }
+
+    /**
+     * Scans one page of at most pageSize entities, starting after the page of
+     * the token (the first page when null).
+     */
+    public EntityPage<T> findAll(String pageToken, int pageSize) {
+        Map<String, AttributeValue> startKey = PageToken.decode(pageToken);
+
+        try {
+            if (client != null) {
+                ScanResult result = client.scan(new ScanRequest(getTable().getTableName())
+                        .withLimit(pageSize).withExclusiveStartKey(startKey));
+
+                return new EntityPage<T>(
+                        mapItems(result.getItems(), attributeValueItems, true),
+                        PageToken.encode(result.getLastEvaluatedKey()));
+            }
+
+            ScanSpec spec = new ScanSpec().withMaxPageSize(pageSize);
+            if (startKey != null) {
+                spec.withExclusiveStartKey(toKeyAttributes(startKey));
+            }
+
+            Page<Item, ScanOutcome> page = getTable().scan(spec).firstPage();
+
+            Map<String, AttributeValue> lastEvaluatedKey = page.getLowLevelResult()
+                    .getScanResult().getLastEvaluatedKey();
+
+            return new EntityPage<T>(mapItems(toList(page), documentItems, true),
+                    PageToken.encode(lastEvaluatedKey));
+        } catch (ResourceNotFoundException ex) {
+            return new EntityPage<T>(new ArrayList<T>(), null);
+        }
+    }
+
+    private static KeyAttribute[] toKeyAttributes(Map<String, AttributeValue> key) {
+        List<KeyAttribute> keyAttributes = new ArrayList<KeyAttribute>(key.size());
+        for (Map.Entry<String, AttributeValue> attribute : key.entrySet()) {
+            keyAttributes.add(new KeyAttribute(attribute.getKey(),
+                    AttributeValueCodec.toSimpleValue(attribute.getValue())));
+        }
+
+        return keyAttributes.toArray(new KeyAttribute[keyAttributes.size()]);
+    }
+
+    private static <R> List<Item> toList(Page<Item, R> page) {
+        List<Item> items = new ArrayList<Item>(page.size());
+        for (Item item : page) {
+            items.add(item);
+        }
+
+        return items;
+    }
+
+    /**
+     * Scans the table with the given consistency and projection.
+     */
+    public List<T> findAll(ReadOptions options) {
+        if (options == null || options.isDefault()) {
+            return findAll();
+        }
+
+        if (client != null) {
+            ScanRequest request = new ScanRequest(getTable().getTableName())
+                    .withConsistentRead(options.isConsistentRead());
+            if (options.isProjected()) {
+                Map<String, String> nameMap = new HashMap<String, String>();
+                request.withProjectionExpression(options.buildProjectionExpression(
+                        getIdHandler().getIdFieldName(), nameMap))
+                        .withExpressionAttributeNames(nameMap);
+            }
+
+            return mapScanPages(request, false);
+        }
+
+        ScanSpec spec = new ScanSpec().withConsistentRead(options.isConsistentRead());
+        if (options.isProjected()) {
+            Map<String, String> nameMap = new HashMap<String, String>();
+            spec.withProjectionExpression(options.buildProjectionExpression(
+                    getIdHandler().getIdFieldName(), nameMap)).withNameMap(nameMap);
+        }
+
+        return mapPages(getTable().scan(spec), 0, false);
+    }
+
+    /**
+     * Lazily scans the table, mapping items page by page as the stream is
+     * consumed. Close the stream when it is not fully consumed.
+     */
+    public Stream<T> streamAll() {
+        return EntityPageIterator.stream(this, getTable().scan(), null);
+    }
+
+    /**
+     * Scans the table in parallel, each one of the segments is read by a
+     * worker of the batch executor.
+     */
+    public List<T> findAllParallel(int totalSegments) {
+        return findAllParallel(totalSegments, batchExecutor);
+    }
+
+    public List<T> findAllParallel(int totalSegments, Executor executor) {
+        return new ParallelScan<T>(this, totalSegments, executor).scanToList();
+    }
+
+    /**
+     * Scans the table in parallel, merging the segments in a lazy stream. Close
+     * the stream when it is not fully consumed.
+     */
+    public Stream<T> streamAllParallel(int totalSegments) {
+        return streamAllParallel(totalSegments, batchExecutor);
+    }
+
+    public Stream<T> streamAllParallel(int totalSegments, Executor executor) {
+        return new ParallelScan<T>(this, totalSegments, executor).stream();
+    }
+
+    /**
+     * Scans the table in parallel, handing every page to the handler from the
+     * worker reading its segment. Returns when all the segments are read.
+     */
+    public void scanSegments(int totalSegments, ScanSegmentHandler<T> handler) {
+        scanSegments(totalSegments, handler, batchExecutor);
+    }
+
+    public void scanSegments(int totalSegments, ScanSegmentHandler<T> handler,
+            Executor executor) {
+        new ParallelScan<T>(this, totalSegments, executor).scan(handler);
+    }
+
+    /**
+     * Lazily queries the index of the given attribute, mapping items page by
+     * page as the stream is consumed.
+     */
+    public Stream<T> streamQuery(String attributeName, String value) {
+        return streamQuery(attributeName, value, true);
+    }
+
+    public Stream<T> streamQuery(String attributeName, String value,
+            boolean ascendingOrder) {
+        Index index = getQueryIndex(attributeName);
+        return EntityPageIterator.stream(this, doQuery(attributeName, value,
+                ascendingOrder, 0, getIndexReadOptions(index)), index);
+    }
+
+    @Override
+    public List<T> query(String attributeName, String value) {
+        return query(attributeName, value, true, 100);
+    }
+    
+    @Override
+    public List<T> query(String attributeName, String value, 
+            boolean ascendingOrder, int maxResultSize) {
+        return query(attributeName, value, ascendingOrder, maxResultSize, null);
+    }
+
+    /**
+     * Queries the index of the given attribute with the given projection.
+     * Consistent reads are rejected, indexes are global secondary indexes.
+     * Attributes without index are scanned when the scan fallback is enabled,
+     * projections are not applied to those scans.
+     */
+    public List<T> query(String attributeName, String value, boolean ascendingOrder,
+            int maxResultSize, ReadOptions options) {
+        int segments = getScanFallbackSegments(attributeName);
+        if (segments > 0) {
+            return scanFiltered(attributeName, value, segments, maxResultSize,
+                    options != null && options.isConsistentRead());
+        }
+
+        Index index = getQueryIndex(attributeName);
+        if (isFetchedFromTable(index, options)) {
+            if (options != null) {
+                checkConsistentRead(index, options);
+            }
+
+            ReadOptions idOnly = new ReadOptions()
+                    .withAttributeNames(getIdHandler().getIdFieldName());
+            List<String> ids = client != null
+                    ? readIds(buildQueryRequest(attributeName, value, ascendingOrder,
+                            idOnly), maxResultSize)
+                    : readIds(doQuery(attributeName, value, ascendingOrder,
+                            maxResultSize, idOnly));
+            return findAll(ids, options);
+        }
+
+        boolean defaultRead = options == null || options.isDefault();
+        boolean useSession = defaultRead && !isPartialIndex(index);
+        if (client != null) {
+            return mapQueryPages(buildQueryRequest(attributeName, value, ascendingOrder,
+                    defaultRead ? null : options), maxResultSize, useSession);
+        }
+
+        return mapPages(doQuery(attributeName, value, ascendingOrder, maxResultSize,
+                defaultRead ? null : options), maxResultSize, useSession);
+    }
+
+    /**
+     * Segments of the scan run instead of the queries on the given attribute, 0
+     * when the attribute is queried.
+     */
+    int getScanFallbackSegments(String attributeName) {
+        int segments = scanFallbackSegments;
+        return segments > 0 && queryPlanner.getIndex(attributeName) == null
+                && !queryPlanner.isKeyAttribute(attributeName) ? segments : 0;
+    }
+
+    private List<T> scanFiltered(String attributeName, String value, int segments,
+            int maxResultSize, boolean consistentRead) {
+        if (log.isDebugEnabled()) {
+            log.debug("No index of table " + getTable().getTableName() + " on "
+                    + attributeName + ", scanning it in " + segments + " segments");
+        }
+
+        String attributeAlias = QueryPlanner.getAlias(attributeName);
+        Stream<T> entities = new ParallelScan<T>(this, segments, batchExecutor)
+                .withFilter(attributeAlias + " = :attrValue",
+                        Collections.singletonMap(attributeAlias, attributeName),
+                        Collections.<String, Object> singletonMap(":attrValue", value))
+                .withConsistentRead(consistentRead).stream();
+        try {
+            return (maxResultSize > 0 ? entities.limit(maxResultSize) : entities)
+                    .collect(Collectors.<T> toList());
+        } finally {
+            entities.close();
+        }
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.jstorni.core.dynamodb.Repository#findOne(java.lang.String)
+    /**
+     * Reads one page of at most pageSize entities of the index of the given
+     * attribute, starting after the page of the token (the first page when
+     * null).
      */
-    @Override
-    public T findOne(String id) {
-        Item item = getTable().getItem(buildPrimaryKey(id));
+    public EntityPage<T> query(String attributeName, String value, boolean ascendingOrder,
+            String pageToken, int pageSize) {
+        Map<String, AttributeValue> startKey = PageToken.decode(pageToken);
+        Index index = getQueryIndex(attributeName);
+        ReadOptions options = getIndexReadOptions(index);
 
-        if (item == null) {
-            return null;
+        try {
+            if (client != null) {
+                QueryResult result = client.query(buildQueryRequest(attributeName, value,
+                        ascendingOrder, options).withLimit(pageSize)
+                                .withExclusiveStartKey(startKey));
+
+                return new EntityPage<T>(
+                        mapIndexItems(result.getItems(), attributeValueItems, index),
+                        PageToken.encode(result.getLastEvaluatedKey()));
+            }
+
+            QuerySpec spec = buildQuerySpec(attributeName, value, ascendingOrder, options)
+                    .withMaxPageSize(pageSize);
+            if (startKey != null) {
+                spec.withExclusiveStartKey(toKeyAttributes(startKey));
+            }
+
+            Page<Item, QueryOutcome> page = runQuery(attributeName, spec).firstPage();
+
+            Map<String, AttributeValue> lastEvaluatedKey = page.getLowLevelResult()
+                    .getQueryResult().getLastEvaluatedKey();
+
+            return new EntityPage<T>(mapIndexItems(toList(page), documentItems, index),
+                    PageToken.encode(lastEvaluatedKey));
+        } catch (ResourceNotFoundException ex) {
+            return new EntityPage<T>(new ArrayList<T>(), null);
         }
+    }
 
-        return itemToEntityMapper.map(extractAttrsFromItem(item));
+    /**
+     * Queries the table or the index whose hash key is the given attribute and
+     * whose range key matches the condition (any index of the hash key when
+     * the condition is null).
+     */
+    public List<T> query(String attributeName, String value, SortKeyCondition condition,
+            boolean ascendingOrder, int maxResultSize) {
+        return query(attributeName, value, condition, ascendingOrder, maxResultSize, null);
     }
 
-    private Map<AttributeDefinition, Object> extractAttrsFromItem(Item item) {
-        Map<AttributeDefinition, Object> attributes = new HashMap<AttributeDefinition, Object>();
+    /**
+     * Same as {@link #query(String, String, SortKeyCondition, boolean, int)}
+     * with the given consistency and projection. Consistent reads are rejected
+     * on global secondary indexes.
+     */
+    public List<T> query(String attributeName, String value, SortKeyCondition condition,
+            boolean ascendingOrder, int maxResultSize, ReadOptions options) {
+        boolean defaultRead = options == null || options.isDefault();
+        Index index = getKeyIndex(attributeName, condition);
+        String indexName = index != null ? index.getName() : null;
+        if (!defaultRead) {
+            checkConsistentRead(index, options);
+        }
 
-        Map<String, Object> itemMap = item.asMap();
-        for (String attrName : itemMap.keySet()) {
-            if (!item.hasAttribute(attrName) 
-                    || item.get(attrName) == null) {
-                log.warn("Expected attribute " + attrName + " of table " + getTable()
-                        + " not found");
-                continue;
-            }
+        String attributeAlias = "#" + attributeName.replace('.', '_');
+        Map<String, String> nameMap = new HashMap<String, String>();
+        nameMap.put(attributeAlias, attributeName);
+        Map<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+        valueMap.put(":attrValue", new AttributeValue().withS(value));
 
-            Object itemValue = item.get(attrName);
-            attributes.put(new AttributeDefinition(attrName,
-                    getAttributeType(itemValue.getClass()), null), itemValue);
+        String keyCondition = attributeAlias + " = :attrValue";
+        if (condition != null) {
+            keyCondition += " AND " + condition.buildExpression(nameMap, valueMap);
+        }
+        boolean fetchedFromTable = isFetchedFromTable(index, options);
+        String projection = null;
+        if (fetchedFromTable) {
+            projection = new ReadOptions()
+                    .withAttributeNames(getIdHandler().getIdFieldName())
+                    .buildProjectionExpression(getIdHandler().getIdFieldName(), nameMap);
+        } else if (!defaultRead && options.isProjected()) {
+            projection = options.buildProjectionExpression(getIdHandler().getIdFieldName(),
+                    nameMap);
+        }
+        boolean consistentRead = !defaultRead && options.isConsistentRead();
+
+        if (client != null) {
+            QueryRequest request = new QueryRequest()
+                    .withTableName(getTable().getTableName()).withIndexName(indexName)
+                    .withKeyConditionExpression(keyCondition)
+                    .withExpressionAttributeNames(nameMap)
+                    .withExpressionAttributeValues(valueMap)
+                    .withProjectionExpression(projection)
+                    .withConsistentRead(consistentRead)
+                    .withScanIndexForward(ascendingOrder);
+
+            return fetchedFromTable ? findAll(readIds(request, maxResultSize), options)
+                    : mapQueryPages(request, maxResultSize,
+                            defaultRead && !isPartialIndex(index));
         }
 
-        return attributes;
+        Map<String, Object> simpleValueMap = new HashMap<String, Object>();
+        for (Map.Entry<String, AttributeValue> entry : valueMap.entrySet()) {
+            simpleValueMap.put(entry.getKey(),
+                    AttributeValueCodec.toSimpleValue(entry.getValue()));
+        }
+        QuerySpec spec = new QuerySpec().withKeyConditionExpression(keyCondition)
+                .withNameMap(nameMap).withValueMap(simpleValueMap)
+                .withProjectionExpression(projection).withConsistentRead(consistentRead)
+                .withScanIndexForward(ascendingOrder);
+        if (maxResultSize > 0) {
+            spec.withMaxResultSize(maxResultSize);
+        }
+
+        ItemCollection<QueryOutcome> items = index != null
+                ? queryPlanner.getTableIndex(index).query(spec) : getTable().query(spec);
+        return fetchedFromTable ? findAll(readIds(items), options)
+                : mapPages(items, maxResultSize, defaultRead && !isPartialIndex(index));
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.jstorni.core.dynamodb.Repository#findAll()
+    /**
+     * True when the index does not project all the attributes. Its items are
+     * partial entities, they are kept out of the session and of the change
+     * tracker so a save does not erase the missing attributes.
      */
-    @Override
-    public List<T> findAll() {
-        // TODO set a default output limit
-        // TODO add page support
-        ItemCollection<ScanOutcome> scannedItems = getTable().scan();
-        List<T> items = new ArrayList<T>();
+    private boolean isPartialIndex(Index index) {
+        return index != null && getProjectedAttributes(index) != null;
+    }
+
+    /**
+     * True when the index does not project the attributes to read, the ids
+     * are then read from the index and the entities from the table. Indexes
+     * of tables with a range key return the projected attributes alone.
+     */
+    private boolean isFetchedFromTable(Index index, ReadOptions options) {
+        if (!isPartialIndex(index) || getRangeKeyName() != null) {
+            return false;
+        }
+
+        return options == null || !options.isProjected()
+                || !getProjectedAttributes(index).containsAll(options.getAttributeNames());
+    }
+
+    boolean isFetchedFromTable(String attributeName) {
+        return isFetchedFromTable(getQueryIndex(attributeName), null);
+    }
+
+    boolean isPartialIndex(String attributeName) {
+        return isPartialIndex(getQueryIndex(attributeName));
+    }
+
+    /**
+     * Projection of the queries on the index, the id alone when the entities
+     * are read from the table.
+     */
+    private ReadOptions getIndexReadOptions(Index index) {
+        return isFetchedFromTable(index, null) ? new ReadOptions()
+                .withAttributeNames(getIdHandler().getIdFieldName()) : null;
+    }
+
+    /**
+     * Entities of a page read from the index: fetched from the table when the
+     * index does not project them whole, otherwise mapped from the items.
+     */
+    List<T> mapIndexItems(List<Item> items, Index index) {
+        return mapIndexItems(items, documentItems, index);
+    }
+
+    private <I> List<T> mapIndexItems(List<I> items, ItemAccessor<I> accessor,
+            Index index) {
+        if (isFetchedFromTable(index, null)) {
+            List<String> ids = new ArrayList<String>(items.size());
+            for (I item : items) {
+                ids.add(accessor.getId(item));
+            }
+
+            return findAll(ids);
+        }
+
+        return mapItems(items, accessor, !isPartialIndex(index));
+    }
+
+    private List<String> readIds(QueryRequest request, int maxResultSize) {
+        List<String> ids = new ArrayList<String>();
 
-        IteratorSupport<Item, ScanOutcome> scannedItemsIt = scannedItems.iterator();
+        try {
+            do {
+                if (maxResultSize > 0) {
+                    request.setLimit(maxResultSize - ids.size());
+                }
+
+                QueryResult result = client.query(request);
+                for (Map<String, AttributeValue> item : result.getItems()) {
+                    ids.add(AttributeValueCodec
+                            .toStringValue(item.get(getIdHandler().getIdFieldName())));
+                }
+                request.setExclusiveStartKey(result.getLastEvaluatedKey());
+            } while (hasMorePages(request.getExclusiveStartKey(), ids.size(),
+                    maxResultSize));
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+        }
+
+        return ids;
+    }
+
+    private List<String> readIds(ItemCollection<QueryOutcome> items) {
+        List<String> ids = new ArrayList<String>();
 
         try {
-            Item item;
-            while (scannedItemsIt.hasNext() && (item = scannedItemsIt.next()) != null) {
-                items.add(itemToEntityMapper.map(extractAttrsFromItem(item)));
+            for (Item item : items) {
+                ids.add(item.getString(getIdHandler().getIdFieldName()));
             }
         } catch (ResourceNotFoundException ex) {
             // ignore
         }
 
-        return items;
+        return ids;
     }
 
-    @Override
-    public List<T> query(String attributeName, String value) {
-        return query(attributeName, value, true, 100);
+    /**
+     * Index with the given hash key and the range key of the condition, null
+     * for the primary key of the table.
+     */
+    private Index getKeyIndex(String attributeName, SortKeyCondition condition) {
+        String rangeAttributeName = condition != null ? condition.getAttributeName()
+                : null;
+        if (attributeName.equals(getIdHandler().getIdFieldName())
+                && (rangeAttributeName == null
+                        || rangeAttributeName.equals(getRangeKeyName()))) {
+            return null;
+        }
+
+        Index index = rangeAttributeName != null
+                ? queryPlanner.getIndex(attributeName, rangeAttributeName)
+                : queryPlanner.getIndex(attributeName);
+        if (index == null) {
+            throw new DataValidationException("No index found in JPA annotations "
+                    + getTable().getTableName() + " with support of a search by ["
+                    + attributeName
+                    + (rangeAttributeName != null ? ", " + rangeAttributeName : "") + "]");
+        }
+
+        return index;
     }
-    
-    @Override
-    public List<T> query(String attributeName, String value, 
-            boolean ascendingOrder, int maxResultSize) {
-        Set<Index> indexes = getEntityIndexes();
-        Index currentIndex = null;
-        for (Index index : indexes) {
-            if (index.getAttributeNames() != null && index.getAttributeNames().size() == 1
-                    && index.getAttributeNames().get(0).equals(attributeName)) {
-                currentIndex = index;
-                break;
+
+    /**
+     * Low level request querying the index of the given attribute, or the
+     * table for the id.
+     */
+    QueryRequest buildQueryRequest(String attributeName, String value,
+            boolean ascendingOrder, ReadOptions options) {
+        Index index = getQueryIndex(attributeName);
+
+        Map<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+        valueMap.put(":attrValue", new AttributeValue().withS(value));
+
+        QueryRequest request = new QueryRequest().withTableName(getTable().getTableName())
+                .withIndexName(index != null ? index.getName() : null)
+                .withKeyConditionExpression(
+                        QueryPlanner.getAlias(attributeName) + " = :attrValue")
+                .withScanIndexForward(ascendingOrder);
+
+        Map<String, String> nameMap = queryPlanner.getNameMap(attributeName);
+        if (options != null) {
+            checkConsistentRead(index, options);
+            request.withConsistentRead(options.isConsistentRead());
+
+            if (options.isProjected()) {
+                nameMap = new HashMap<String, String>(nameMap);
+                request.withProjectionExpression(options.buildProjectionExpression(
+                        getIdHandler().getIdFieldName(), nameMap));
             }
         }
 
-        if (currentIndex == null) {
-            throw new DataValidationException(
-                    "No index found in JPA annotations " + getTable().getTableName()
-                            + " with support of a search by [" + attributeName + "]");
+        return request.withExpressionAttributeNames(nameMap)
+                .withExpressionAttributeValues(valueMap);
+    }
+
+    private ItemCollection<QueryOutcome> doQuery(String attributeName, String value,
+            boolean ascendingOrder, int maxResultSize, ReadOptions options) {
+        QuerySpec spec = buildQuerySpec(attributeName, value, ascendingOrder, options);
+        if (maxResultSize > 0) {
+            spec.withMaxResultSize(maxResultSize);
         }
 
-        com.amazonaws.services.dynamodbv2.document.Index tableIndex = getTable()
-                .getIndex(currentIndex.getName());
+        return runQuery(attributeName, spec);
+    }
+
+    private ItemCollection<QueryOutcome> runQuery(String attributeName, QuerySpec spec) {
+        Index index = getQueryIndex(attributeName);
 
-        if (tableIndex == null) {
-            throw new DataValidationException(
-                    "No index found in table " + getTable().getTableName()
-                            + " with support of a search by [" + attributeName + "]");
-        }
+        return index != null ? queryPlanner.getTableIndex(index).query(spec)
+                : getTable().query(spec);
+    }
+
+    private QuerySpec buildQuerySpec(String attributeName, String value,
+            boolean ascendingOrder, ReadOptions options) {
+        Index currentIndex = getQueryIndex(attributeName);
 
-        Map<String, String> nameMap = new HashMap<>();
-        nameMap.put("#" + attributeName.replace('.', '_'), attributeName);
+        Map<String, String> nameMap = queryPlanner.getNameMap(attributeName);
         QuerySpec spec = new QuerySpec()
                 .withKeyConditionExpression(
-                        "#" + attributeName.replace('.', '_') + " = :attrValue")
-                .withNameMap(nameMap)
+                        QueryPlanner.getAlias(attributeName) + " = :attrValue")
                 .withValueMap(new ValueMap().withString(":attrValue", value))
-                .withScanIndexForward(ascendingOrder)
-                .withMaxResultSize(maxResultSize);
+                .withScanIndexForward(ascendingOrder);
 
-        ItemCollection<QueryOutcome> queryItems = tableIndex.query(spec);
-        List<T> items = new ArrayList<T>();
+        if (options != null) {
+            checkConsistentRead(currentIndex, options);
+            spec.withConsistentRead(options.isConsistentRead());
 
-        IteratorSupport<Item, QueryOutcome> scannedItemsIt = queryItems.iterator();
-
-        try {
-            Item item;
-            while (scannedItemsIt.hasNext() && (item = scannedItemsIt.next()) != null) {
-                items.add(itemToEntityMapper.map(extractAttrsFromItem(item)));
+            if (options.isProjected()) {
+                nameMap = new HashMap<String, String>(nameMap);
+                spec.withProjectionExpression(options.buildProjectionExpression(
+                        getIdHandler().getIdFieldName(), nameMap));
             }
-        } catch (ResourceNotFoundException ex) {
-            // ignore
         }
 
-        return items;
+        return spec.withNameMap(nameMap);
+    }
+
+    /**
+     * Global secondary indexes do not support consistent reads.
+     */
+    private void checkConsistentRead(Index index, ReadOptions options) {
+        if (options.isConsistentRead() && index != null && !isLocalIndex(index)) {
+            throw new DataValidationException("Index " + index.getName() + " of table "
+                    + getTable().getTableName() + " does not support consistent reads");
+        }
+    }
+
+    /**
+     * Index with the given hash attribute, null for the id which is queried on
+     * the table itself.
+     */
+    Index getQueryIndex(String attributeName) {
+        Index index = queryPlanner.getIndex(attributeName);
+        if (index == null && !queryPlanner.isKeyAttribute(attributeName)) {
+            throw new DataValidationException(
+                    "No index found in JPA annotations " + getTable().getTableName()
+                            + " with support of a search by [" + attributeName + "]");
+        }
+
+        return index;
     }
 
     /*
@@ -207,18 +1549,52 @@ public class DynamoDBBaseRepository<T> extends DynamoDBSchemaSupport<T>
      */
     @Override
     public T save(T instance) {
-        Item item = buildItem(instance);
+        Map<String, AttributeValue> item = encode(instance);
 
         // TODO execute @PrePersist
 
-        getTable().putItem(item);
+        ChangeTracker tracker = changeTracker;
+        Map<String, AttributeValue> snapshot = tracker != null && client != null
+                ? tracker.getSnapshot(instance) : null;
+        if (snapshot == null || !updateChangedAttributes(snapshot, item)) {
+            putItem(item);
+        }
+        if (tracker != null) {
+            tracker.track(instance, item);
+        }
+        evictCached(getIdHandler().getIdValue(instance));
+        registerInSession(getIdHandler().getIdValue(instance), instance);
 
         // TODO execute @PostPersist
 
         return instance;
     }
 
-    private Item buildItem(T instance) {
+    Item buildItem(T instance) {
+        generateIdIfMissing(instance);
+
+        Map<AttributeDefinition, Object> attributes = entityToItemMapper.map(instance);
+
+        // the primary key is a regular attribute of the item
+        Item item = new Item();
+        for (Map.Entry<AttributeDefinition, Object> attribute : attributes.entrySet()) {
+            String name = attribute.getKey().getName();
+            item.with(name, compressor.compress(name, attribute.getValue()));
+        }
+
+        return item;
+    }
+
+    /**
+     * Attribute values of the instance, generating its id when missing.
+     */
+    Map<String, AttributeValue> encode(T instance) {
+        generateIdIfMissing(instance);
+
+        return codec.encode(instance);
+    }
+
+    private void generateIdIfMissing(T instance) {
         String id = getIdHandler().getIdValue(instance);
         if (id == null) {
             String generatedId = getIdHandler().generateId(instance);
@@ -228,149 +1604,207 @@ public class DynamoDBBaseRepository<T> extends DynamoDBSchemaSupport<T>
 
             getIdHandler().setIdValue(instance, generatedId);
         }
+    }
 
-        Map<AttributeDefinition, Object> attributes = entityToItemMapper.map(instance);
-
-        Item item = new Item();
-
-        for (AttributeDefinition attrDef : attributes.keySet()) {
-            if (attrDef.getConstraints() != null) {
-                if (attrDef.getConstraints()
-                        .contains(AttributeConstraint.buildPrimaryKeyConstraint())) {
-                    item.withPrimaryKey(attrDef.getName(), attributes.get(attrDef));
-                }
+    /**
+     * Writes the attributes changed since the snapshot with an UpdateItem.
+     * Returns false when the item should be put instead: its key changed or
+     * it does not exist anymore.
+     */
+    private boolean updateChangedAttributes(Map<String, AttributeValue> snapshot,
+            Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        String idName = getIdHandler().getIdFieldName();
+        key.put(idName, item.get(idName));
+        if (getRangeKeyName() != null) {
+            key.put(getRangeKeyName(), item.get(getRangeKeyName()));
+        }
+        for (Map.Entry<String, AttributeValue> keyAttribute : key.entrySet()) {
+            if (!keyAttribute.getValue().equals(snapshot.get(keyAttribute.getKey()))) {
+                return false;
             }
-
-            item.with(attrDef.getName(), attributes.get(attrDef));
         }
 
-        return item;
-    }
-
-    protected ExecutorService buildBatchExecutor(int coreThreads, int maxThreads) {
-        ExecutorService executor;
+        Map<String, String> nameMap = new HashMap<String, String>();
+        Map<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+        StringBuilder setExpression = new StringBuilder();
+        StringBuilder removeExpression = new StringBuilder();
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (!key.containsKey(attribute.getKey())
+                    && !attribute.getValue().equals(snapshot.get(attribute.getKey()))) {
+                String alias = "#a" + nameMap.size();
+                nameMap.put(alias, attribute.getKey());
+                valueMap.put(":v" + valueMap.size(), attribute.getValue());
+                setExpression.append(setExpression.length() == 0 ? "SET " : ", ")
+                        .append(alias).append(" = :v").append(valueMap.size() - 1);
+            }
+        }
+        for (String attributeName : snapshot.keySet()) {
+            if (!key.containsKey(attributeName) && !item.containsKey(attributeName)) {
+                String alias = "#a" + nameMap.size();
+                nameMap.put(alias, attributeName);
+                removeExpression.append(removeExpression.length() == 0 ? "REMOVE " : ", ")
+                        .append(alias);
+            }
+        }
 
-        if (coreThreads > 1 || maxThreads > 1) {
-            executor = new ThreadPoolExecutor(batchCoreThreadCount, batchMaxThreadCount,
-                    0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
-        } else {
-            executor = Executors.newSingleThreadExecutor();
+        // when nothing changed the update only checks the item still exists,
+        // a deleted item is put again
+        String updateExpression = (setExpression + " " + removeExpression).trim();
+        nameMap.put("#key", idName);
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(getTable().getTableName()).withKey(key)
+                .withUpdateExpression(updateExpression.isEmpty() ? null : updateExpression)
+                .withConditionExpression("attribute_exists(#key)")
+                .withExpressionAttributeNames(nameMap)
+                .withExpressionAttributeValues(valueMap.isEmpty() ? null : valueMap);
+        try {
+            client.updateItem(request);
+        } catch (ConditionalCheckFailedException ex) {
+            return false;
         }
 
-        return executor;
+        return true;
     }
 
-    protected void waitForBatchExecution(ExecutorService executor, long timeoutMillis) {
-        executor.shutdown();
-
-        try {
-            executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
-            if (!executor.isTerminated()) {
-                throw new DataException("Timeout when executing batch on table "
-                        + getTable().getTableName() + " (Timeout: " + timeoutMillis
-                        + " millis)");
-            }
-        } catch (InterruptedException e) {
-            throw new DataException("Error while executing batch on table "
-                    + getTable().getTableName() + ". Unexpected interruption");
+    private void putItem(Map<String, AttributeValue> item) {
+        if (client != null) {
+            client.putItem(new PutItemRequest(getTable().getTableName(), item));
+        } else {
+            getTable().putItem(ItemUtils.toItem(item));
         }
     }
 
     @Override
     public List<T> save(List<T> instances) {
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
 
-        ExecutorService executor = buildBatchExecutor(batchCoreThreadCount,
-                batchMaxThreadCount);
-
-        AtomicInteger taskCount = new AtomicInteger();
-
-        List<Item> items = new ArrayList<Item>();
+        List<WriteRequest> items = new ArrayList<WriteRequest>();
         for (T instance : instances) {
             boolean newItem = false;
             if (getIdHandler().getIdValue(instance) == null) {
                 newItem = true;
             }
 
-            Item item = buildItem(instance);
+            final Map<String, AttributeValue> item = encode(instance);
             if (newItem) {
                 // batch write is just for existing items
-                executor.execute(new Runnable() {
+                results.add(submitBatchTask(new Runnable() {
                     @Override
                     public void run() {
-                        taskCount.getAndIncrement();
-                        doSingleInsert(item);
+                        putItem(item);
                     }
-                });
+                }));
 
             } else {
                 // TODO execute @PrePersist
-                items.add(item);
+                items.add(new WriteRequest(new PutRequest(item)));
                 if (items.size() == BATCH_WRITE_ITEMS_LIMIT) {
-                    List<Item> itemsToProcess = new ArrayList<Item>();
-                    itemsToProcess.addAll(items);
-                    executor.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            taskCount.getAndIncrement();
-                            doBatchUpdateOrDelete(
-                                    new TableWriteItems(getTable().getTableName())
-                                            .withItemsToPut(itemsToProcess));
-                        }
-
-                    });
+                    results.add(submitBatchWrite(items));
 
                     // TODO execute @PostPersist
 
-                    items.clear();
+                    items = new ArrayList<WriteRequest>();
                 }
             }
         }
 
         if (!items.isEmpty()) {
-            executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    taskCount.getAndIncrement();
-                    doBatchUpdateOrDelete(new TableWriteItems(getTable().getTableName())
-                            .withItemsToPut(items));
-                }
-
-            });
+            results.add(submitBatchWrite(items));
 
             // TODO execute @PostPersist
         }
 
-        if (taskCount.intValue() > 0) {
-            waitForBatchExecution(executor, taskCount.intValue() * BATCH_TIMEOUT_MILLIS);
+        try {
+            waitForResults(results);
+        } finally {
+            for (T instance : instances) {
+                // batch writes put whole items, the next save of the instance
+                // puts it too
+                untrack(instance);
+                evictCached(getIdHandler().getIdValue(instance));
+                registerInSession(getIdHandler().getIdValue(instance), instance);
+            }
         }
 
         return instances;
     }
 
-    private void doSingleInsert(Item item) {
-        getTable().putItem(item);
+    /**
+     * Writes up to {@value #BATCH_WRITE_ITEMS_LIMIT} requests on the table of
+     * the repository with one BatchWriteItem.
+     */
+    Future<Void> submitBatchWrite(final List<WriteRequest> writeRequests) {
+        return submitBatchTask(new Runnable() {
+            @Override
+            public void run() {
+                doBatchUpdateOrDelete(writeRequests);
+            }
+        });
     }
 
-    private void doBatchUpdateOrDelete(TableWriteItems tableWriteItems) {
-        BatchWriteItemOutcome outcome = getDynamoDB().batchWriteItem(tableWriteItems);
+    private void doBatchUpdateOrDelete(List<WriteRequest> writeRequests) {
+        long startMillis = System.currentTimeMillis();
+        Map<String, List<WriteRequest>> requestItems = new HashMap<String, List<WriteRequest>>();
+        requestItems.put(getTable().getTableName(), writeRequests);
+        BatchWriteItemOutcome outcome = getDynamoDB()
+                .batchWriteItemUnprocessed(requestItems);
 
-        // keep trying until items are fully processed
-        // TODO search for exponential backoff and timeout
+        // keep trying until items are fully processed or retries are exhausted
+        long delayMillis = 0;
         int tryCount = 0;
-        do {
-            Map<String, List<WriteRequest>> unprocessedItems = outcome
-                    .getUnprocessedItems();
+        Map<String, List<WriteRequest>> unprocessedItems = outcome.getUnprocessedItems();
+        while (unprocessedItems != null && !unprocessedItems.isEmpty()) {
+            delayMillis = batchRetryPolicy.getNextDelay(delayMillis);
+            if (!batchRetryPolicy.canRetry(++tryCount,
+                    System.currentTimeMillis() - startMillis, delayMillis)) {
+                throw new UnprocessedItemsException(getTable().getTableName(),
+                        getIdHandler().getIdFieldName(), unprocessedItems,
+                        tryCount - 1);
+            }
 
-            if (outcome.getUnprocessedItems().size() > 0) {
+            if (log.isWarnEnabled()) {
                 log.warn("Going to retry to update/delete "
-                        + outcome.getUnprocessedItems().size()
-                        + " unprocessed items (try #" + (++tryCount) + ")");
-                outcome = getDynamoDB().batchWriteItemUnprocessed(unprocessedItems);
+                        + countWriteRequests(unprocessedItems)
+                        + " unprocessed items in " + delayMillis + " millis (try #"
+                        + tryCount + ")");
             }
 
-        } while (outcome.getUnprocessedItems().size() > 0);
+            recordRetry("BatchWriteItem", countWriteRequests(unprocessedItems));
+            batchRetryPolicy.sleep(delayMillis);
+            outcome = getDynamoDB().batchWriteItemUnprocessed(unprocessedItems);
+            unprocessedItems = outcome.getUnprocessedItems();
+        }
+    }
+
+    void recordRetry(String operation, int unprocessedItems) {
+        MetricsRegistry registry = metricsRegistry;
+        if (registry != null) {
+            registry.recordRetry(getTable().getTableName(), operation, unprocessedItems);
+        }
+    }
+
+    private int countWriteRequests(Map<String, List<WriteRequest>> writeRequests) {
+        int count = 0;
+        for (List<WriteRequest> tableWriteRequests : writeRequests.values()) {
+            count += tableWriteRequests.size();
+        }
+
+        return count;
+    }
 
+    /**
+     * Deletes the item with the given id and range key, for tables with a
+     * composite primary key.
+     */
+    public void deleteById(String id, Object rangeKey) {
+        Map<String, AttributeValue> key = buildKey(id, rangeKey);
+        if (client != null) {
+            client.deleteItem(new DeleteItemRequest(getTable().getTableName(), key));
+        } else {
+            getTable().deleteItem(new PrimaryKey(getIdHandler().getIdFieldName(), id,
+                    getRangeKeyName(), rangeKey));
+        }
     }
 
     /*
@@ -380,52 +1814,230 @@ public class DynamoDBBaseRepository<T> extends DynamoDBSchemaSupport<T>
      */
     @Override
     public void deleteById(String id) {
-        getTable().deleteItem(buildPrimaryKey(id));
+        if (client != null) {
+            client.deleteItem(
+                    new DeleteItemRequest(getTable().getTableName(), buildKey(id)));
+        } else {
+            getTable().deleteItem(buildPrimaryKey(id));
+        }
+        evictCached(id);
+        registerInSession(id, null);
     }
 
     @Override
     public void deleteById(List<String> ids) {
-        ExecutorService executor = buildBatchExecutor(batchCoreThreadCount,
-                batchMaxThreadCount);
-
-        AtomicInteger taskCount = new AtomicInteger();
-
-        List<String> idsToDelete = new ArrayList<String>();
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
 
-        String idFieldName = getIdHandler().getIdFieldName();
+        List<WriteRequest> idsToDelete = new ArrayList<WriteRequest>();
 
         for (String id : ids) {
-            idsToDelete.add(id);
+            idsToDelete.add(new WriteRequest(new DeleteRequest(buildKey(id))));
 
             if (idsToDelete.size() == BATCH_DELETE_ITEMS_LIMIT) {
-                List<String> batchIds = new ArrayList<String>();
-                batchIds.addAll(idsToDelete);
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        doBatchUpdateOrDelete(
-                                new TableWriteItems(getTable().getTableName())
-                                        .withHashOnlyKeysToDelete(idFieldName,
-                                                batchIds.toArray()));
-                        taskCount.incrementAndGet();
-                    }
-                });
+                results.add(submitBatchWrite(idsToDelete));
 
-                idsToDelete.clear();
+                idsToDelete = new ArrayList<WriteRequest>();
             }
         }
 
         if (!idsToDelete.isEmpty()) {
-            doBatchUpdateOrDelete(new TableWriteItems(getTable().getTableName())
-                    .withHashOnlyKeysToDelete(idFieldName, idsToDelete.toArray()));
+            results.add(submitBatchWrite(idsToDelete));
+        }
+
+        try {
+            waitForResults(results);
+        } finally {
+            for (String id : ids) {
+                evictCached(id);
+                registerInSession(id, null);
+            }
+        }
+    }
+
+    /**
+     * Adds the delta to a numeric attribute of an existing item with a single
+     * UpdateItem, concurrent increments are not lost. Returns the new value.
+     */
+    public BigDecimal increment(String id, String attributeName, Number delta) {
+        return increment(id, Collections.singletonMap(attributeName, delta))
+                .get(attributeName);
+    }
+
+    /**
+     * Adds the deltas to numeric attributes of an existing item with a single
+     * UpdateItem. Returns the new values by attribute name.
+     */
+    public Map<String, BigDecimal> increment(String id,
+            Map<String, ? extends Number> deltas) {
+        if (id == null) {
+            throw new DataValidationException("Entity id should not be null");
+        }
+        if (deltas.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> nameMap = new HashMap<String, String>();
+        Map<String, Object> valueMap = new HashMap<String, Object>();
+        StringBuilder updateExpression = new StringBuilder();
+        for (Map.Entry<String, ? extends Number> delta : deltas.entrySet()) {
+            if (queryPlanner.isKeyAttribute(delta.getKey())) {
+                throw new DataValidationException("Key attribute " + delta.getKey()
+                        + " of table " + getTable().getTableName()
+                        + " can not be incremented");
+            }
+            if (delta.getValue() == null) {
+                throw new DataValidationException(
+                        "Delta of attribute " + delta.getKey() + " should not be null");
+            }
+
+            String alias = "#a" + nameMap.size();
+            nameMap.put(alias, delta.getKey());
+            valueMap.put(":d" + valueMap.size(), delta.getValue());
+            updateExpression.append(updateExpression.length() == 0 ? "ADD " : ", ")
+                    .append(alias).append(" :d").append(valueMap.size() - 1);
+        }
+        // ADD would create the item when missing
+        nameMap.put("#key", getIdHandler().getIdFieldName());
+
+        Map<String, BigDecimal> values = new HashMap<String, BigDecimal>();
+        try {
+            if (client != null) {
+                Map<String, AttributeValue> attributeValues = new HashMap<String, AttributeValue>();
+                for (Map.Entry<String, Object> value : valueMap.entrySet()) {
+                    attributeValues.put(value.getKey(),
+                            AttributeValueCodec.toAttributeValue(value.getValue()));
+                }
+                Map<String, AttributeValue> updated = client.updateItem(
+                        new UpdateItemRequest().withTableName(getTable().getTableName())
+                                .withKey(buildKey(id))
+                                .withUpdateExpression(updateExpression.toString())
+                                .withConditionExpression("attribute_exists(#key)")
+                                .withExpressionAttributeNames(nameMap)
+                                .withExpressionAttributeValues(attributeValues)
+                                .withReturnValues(ReturnValue.UPDATED_NEW))
+                        .getAttributes();
+                for (String attributeName : deltas.keySet()) {
+                    values.put(attributeName, (BigDecimal) AttributeValueCodec
+                            .toSimpleValue(updated.get(attributeName)));
+                }
+            } else {
+                Item updated = getTable().updateItem(new UpdateItemSpec()
+                        .withPrimaryKey(buildPrimaryKey(id))
+                        .withUpdateExpression(updateExpression.toString())
+                        .withConditionExpression("attribute_exists(#key)")
+                        .withNameMap(nameMap).withValueMap(valueMap)
+                        .withReturnValues(ReturnValue.UPDATED_NEW)).getItem();
+                for (String attributeName : deltas.keySet()) {
+                    values.put(attributeName, updated.getNumber(attributeName));
+                }
+            }
+        } catch (ConditionalCheckFailedException ex) {
+            throw new DataException("No item with id " + id + " in table "
+                    + getTable().getTableName() + ": " + ex);
+        } finally {
+            // the cached and session copies hold the previous values
+            evictCached(id);
+            EntitySession session = getSession();
+            if (session != null) {
+                session.remove(getEntityClass(), id);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Runs the mapping and the read path once: an entity built with its
+     * default constructor is encoded and decoded, and a missing id is read.
+     */
+    void warmUp() {
+        try {
+            itemToEntityMapper
+                    .map(codec.decode(codec.encode(getEntityClass().newInstance())));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not warm up the mapping of " + getEntityClass().getName()
+                    + ": " + e);
+        }
+
+        if (getRangeKeyName() != null) {
+            return;
+        }
+
+        // bypasses the entity cache
+        String missingId = UUID.randomUUID().toString();
+        try {
+            if (client != null) {
+                client.getItem(
+                        new GetItemRequest(getTable().getTableName(), buildKey(missingId)));
+            } else {
+                getTable().getItem(buildPrimaryKey(missingId));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not warm up reads of table " + getTable().getTableName()
+                    + ": " + e);
+        }
+    }
+
+    void evictCached(String id) {
+        EntityCache cache = entityCache;
+        if (cache != null && id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    Map<String, AttributeValue> buildKey(String idValue) {
+        checkHashOnlyKey();
+
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(getIdHandler().getIdFieldName(), new AttributeValue().withS(idValue));
+
+        return key;
+    }
+
+    private Map<String, AttributeValue> buildKey(String idValue, Object rangeKeyValue) {
+        if (getRangeKeyName() == null) {
+            return buildKey(idValue);
+        }
+        if (rangeKeyValue == null) {
+            throw new DataValidationException("Range key " + getRangeKeyName()
+                    + " of table " + getTable().getTableName() + " should not be null");
+        }
+
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(getIdHandler().getIdFieldName(), new AttributeValue().withS(idValue));
+        key.put(getRangeKeyName(), AttributeValueCodec.toAttributeValue(rangeKeyValue));
+
+        return key;
+    }
+
+    /**
+     * Ids alone do not identify the items of tables with a range key.
+     */
+    private void checkHashOnlyKey() {
+        if (getRangeKeyName() != null) {
+            throw new DataValidationException("Table " + getTable().getTableName()
+                    + " has a composite primary key, the range key "
+                    + getRangeKeyName() + " is required");
         }
+    }
 
-        if (taskCount.intValue() > 0) {
-            waitForBatchExecution(executor, taskCount.intValue() * BATCH_TIMEOUT_MILLIS);
+    /**
+     * Identity of the item, its id or its id and range key when the table has
+     * a composite primary key.
+     */
+    String getItemKey(Map<String, AttributeValue> item) {
+        String id = AttributeValueCodec
+                .toStringValue(item.get(getIdHandler().getIdFieldName()));
+        if (getRangeKeyName() == null) {
+            return id;
         }
+
+        return id + "|" + AttributeValueCodec.toStringValue(item.get(getRangeKeyName()));
     }
 
     protected PrimaryKey buildPrimaryKey(String idValue) {
+        checkHashOnlyKey();
+
         PrimaryKey primaryKey = new PrimaryKey();
         primaryKey.addComponent(getIdHandler().getIdFieldName(), idValue);
 
@@ -1,28 +1,87 @@
 package org.devspark.aws.lorm.dynamodb;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.devspark.aws.lorm.AbstractEntityManagerImpl;
+import org.devspark.aws.lorm.exceptions.DataException;
+import org.devspark.aws.lorm.exceptions.DataValidationException;
 import org.devspark.aws.lorm.mapping.EntityToItemMapper;
 import org.devspark.aws.lorm.mapping.ItemToEntityMapper;
 import org.devspark.aws.lorm.schema.validation.EntitySchemaSupport;
+import org.devspark.aws.lorm.schema.validation.SchemaValidationError;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 
 public class DynamoDBEntityManager extends AbstractEntityManagerImpl {
-    private AmazonDynamoDB dynamoDB;
+    private final static Log LOG = LogFactory.getLog(DynamoDBEntityManager.class);
+
+    private AmazonDynamoDBAsync dynamoDB;
+    private DynamoDB documentClient;
+    private ClientOptions clientOptions;
+    private final MetricsRequestHandler metricsRequestHandler = new MetricsRequestHandler();
+    private final RateLimitingRequestHandler rateLimitingRequestHandler = new RateLimitingRequestHandler();
+    private volatile MetricsRegistry metricsRegistry = new DefaultMetricsRegistry();
+    private final List<ObjectName> registeredMBeans = new CopyOnWriteArrayList<ObjectName>();
+    private final ThreadLocal<EntitySession> currentSession = new ThreadLocal<EntitySession>();
+    private final Map<Class<?>, DynamoDBAsyncRepository<?>> asyncRepositories = new ConcurrentHashMap<Class<?>, DynamoDBAsyncRepository<?>>();
+    private BatchExecutor batchExecutor = BatchExecutors
+	    .newDefaultExecutor(BATCH_DEFAULT_MAX_CONCURRENCY);
 
     public final static String HOST = "HOST";
     public final static String PORT = "PORT";
     public final static String ACCESS_KEY = "ACCESS_KEY";
     public final static String SECRET_KEY = "SECRET_KEY";
 
+    private final static int BATCH_DEFAULT_MAX_CONCURRENCY = 50;
+    private final static int WARM_UP_DEFAULT_CONNECTIONS = 10;
+    private final static long SCHEMA_SYNC_TIMEOUT_MILLIS = 600000;
+    private final static long SCHEMA_POLL_MIN_DELAY_MILLIS = 100;
+    private final static long SCHEMA_POLL_MAX_DELAY_MILLIS = 5000;
+    private final static String MBEAN_DOMAIN = "org.devspark.aws.lorm.dynamodb";
+
     public DynamoDBEntityManager(String host, String port, String username,
 	    String password) {
+	this(host, port, username, password, new ClientOptions());
+    }
+
+    /**
+     * Builds the client with the given connection pool, timeouts and retry
+     * policy.
+     */
+    public DynamoDBEntityManager(String host, String port, String username,
+	    String password, ClientOptions clientOptions) {
+	this.clientOptions = clientOptions;
+
 	Map<String, String> properties = new HashMap<String, String>();
 	properties.put(HOST, host);
 	properties.put(PORT, port);
@@ -36,19 +95,55 @@ public class DynamoDBEntityManager extends AbstractEntityManagerImpl {
 	this(null, null, null, null);
     }
 
+    /**
+     * Uses the given client, configured by the application (or a stub).
+     */
+    public DynamoDBEntityManager(AmazonDynamoDBAsync dynamoDB) {
+	metricsRequestHandler.setMetricsRegistry(metricsRegistry);
+	if (dynamoDB instanceof AmazonWebServiceClient) {
+	    // waits for capacity are not measured as latency
+	    ((AmazonWebServiceClient) dynamoDB)
+		    .addRequestHandler(rateLimitingRequestHandler);
+	    ((AmazonWebServiceClient) dynamoDB).addRequestHandler(metricsRequestHandler);
+	}
+	this.dynamoDB = dynamoDB;
+	this.documentClient = new DynamoDB(dynamoDB);
+    }
+
     @Override
     protected void setUp(Map<String, String> properties) {
 	if (dynamoDB != null) {
 	    return;
 	}
 
+	if (clientOptions == null) {
+	    clientOptions = new ClientOptions();
+	}
+
+	// the async client is a regular client too, used by both repository kinds
+	ClientConfiguration clientConfiguration = clientOptions.toClientConfiguration();
+	ExecutorService asyncExecutor = buildAsyncClientExecutor(
+		clientOptions.getAsyncThreads());
+
+	AmazonDynamoDBAsyncClient client;
 	if (properties.get(ACCESS_KEY) == null || properties.get(SECRET_KEY) == null) {
-	    dynamoDB = new AmazonDynamoDBClient();
+	    client = new AmazonDynamoDBAsyncClient(
+		    new DefaultAWSCredentialsProviderChain(), clientConfiguration,
+		    asyncExecutor);
 	} else {
-	    dynamoDB = new AmazonDynamoDBClient(new BasicAWSCredentials(
-		    properties.get(ACCESS_KEY), properties.get(SECRET_KEY)));
+	    client = new AmazonDynamoDBAsyncClient(
+		    new BasicAWSCredentials(properties.get(ACCESS_KEY),
+			    properties.get(SECRET_KEY)),
+		    clientConfiguration, asyncExecutor);
 	}
 
+	metricsRequestHandler.setMetricsRegistry(metricsRegistry);
+	client.addRequestHandler(rateLimitingRequestHandler);
+	client.addRequestHandler(metricsRequestHandler);
+	dynamoDB = client;
+	// shared by all the repositories, it holds no connection of its own
+	documentClient = new DynamoDB(client);
+
 	if (properties.get(HOST) != null) {
 	    String url = "http://" + properties.get(HOST);
 	    if (properties.get(PORT) != null) {
@@ -59,13 +154,332 @@ public class DynamoDBEntityManager extends AbstractEntityManagerImpl {
 	}
     }
 
+    private ExecutorService buildAsyncClientExecutor(int threads) {
+	final AtomicInteger threadCount = new AtomicInteger();
+	return Executors.newFixedThreadPool(threads,
+		new ThreadFactory() {
+		    @Override
+		    public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,
+				"lorm-dynamodb-async-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		    }
+		});
+    }
+
+    /**
+     * Async repository of a registered entity, sharing the mappers and the
+     * batch executor of its synchronous repository.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> DynamoDBAsyncRepository<T> getAsyncRepository(Class<T> entityClass) {
+	DynamoDBAsyncRepository<T> asyncRepository = (DynamoDBAsyncRepository<T>) asyncRepositories
+		.get(entityClass);
+	if (asyncRepository == null) {
+	    throw new DataException(
+		    "Entity not registered in entity manager: " + entityClass.getName());
+	}
+
+	return asyncRepository;
+    }
+
+    /**
+     * Opens an identity map bound to the current thread, it should be closed by
+     * the caller (usually at the end of the request).
+     */
+    public EntitySession openSession() {
+	if (currentSession.get() != null) {
+	    throw new DataException("A session is already open in the current thread");
+	}
+
+	EntitySession session = new EntitySession(this);
+	currentSession.set(session);
+
+	return session;
+    }
+
+    public EntitySession getCurrentSession() {
+	return currentSession.get();
+    }
+
+    void closeSession(EntitySession session) {
+	if (currentSession.get() == session) {
+	    currentSession.remove();
+	}
+    }
+
+    public BatchExecutor getBatchExecutor() {
+	return batchExecutor;
+    }
+
+    /**
+     * Replaces the executor shared by all the repositories for batch
+     * operations. The previous executor is shut down.
+     */
+    public void setBatchExecutor(BatchExecutor batchExecutor) {
+	BatchExecutor previousExecutor = this.batchExecutor;
+	this.batchExecutor = batchExecutor;
+
+	for (Object repository : getAllRepositories().values()) {
+	    if (repository instanceof DynamoDBBaseRepository) {
+		((DynamoDBBaseRepository<?>) repository).setBatchExecutor(batchExecutor);
+	    }
+	}
+
+	if (previousExecutor != null && previousExecutor != batchExecutor) {
+	    previousExecutor.shutdown();
+	}
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+	return metricsRegistry;
+    }
+
+    /**
+     * Replaces the registry receiving the measures of every request, null
+     * disables the metrics. The JMX beans only report the measures of a
+     * {@link DefaultMetricsRegistry}.
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+	this.metricsRegistry = metricsRegistry;
+	metricsRequestHandler.setMetricsRegistry(metricsRegistry);
+
+	for (Object repository : getAllRepositories().values()) {
+	    if (repository instanceof DynamoDBBaseRepository) {
+		((DynamoDBBaseRepository<?>) repository).setMetricsRegistry(metricsRegistry);
+	    }
+	}
+    }
+
+    public CapacityRateLimiter getRateLimiter() {
+	return rateLimitingRequestHandler.getRateLimiter();
+    }
+
+    /**
+     * Paces the requests of every repository to the capacity of their tables
+     * and indexes, null (the default) sends them right away. Async requests
+     * wait on the threads of the async client, see
+     * {@link ClientOptions#withAsyncThreads(int)}.
+     */
+    public void setRateLimiter(CapacityRateLimiter rateLimiter) {
+	rateLimitingRequestHandler.setRateLimiter(rateLimiter);
+    }
+
+    /**
+     * Client settings, null when the client was given by the application.
+     */
+    public ClientOptions getClientOptions() {
+	return clientOptions;
+    }
+
+    public void warmUp() {
+	warmUp(WARM_UP_DEFAULT_CONNECTIONS);
+    }
+
+    /**
+     * Opens the given number of pooled connections with concurrent
+     * DescribeTable requests and runs the mapping and read path of every
+     * registered entity once, so the first requests after a deploy do not
+     * pay for the TLS handshakes, class loading and JIT. Failures are
+     * logged, the tables are not required to exist.
+     */
+    public void warmUp(int connections) {
+	List<String> tableNames = new ArrayList<String>();
+	for (Object repository : getAllRepositories().values()) {
+	    if (repository instanceof DynamoDBBaseRepository) {
+		tableNames.add(((DynamoDBBaseRepository<?>) repository).getTable()
+			.getTableName());
+	    }
+	}
+	if (tableNames.isEmpty()) {
+	    return;
+	}
+
+	List<Future<DescribeTableResult>> results = new ArrayList<Future<DescribeTableResult>>();
+	for (int i = 0; i < connections; i++) {
+	    results.add(dynamoDB
+		    .describeTableAsync(tableNames.get(i % tableNames.size())));
+	}
+	for (Future<DescribeTableResult> result : results) {
+	    try {
+		result.get();
+	    } catch (ExecutionException e) {
+		LOG.warn("Could not open a connection while warming up: " + e.getCause());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new DataException("Unexpected interruption while warming up");
+	    }
+	}
+
+	for (Object repository : getAllRepositories().values()) {
+	    if (repository instanceof DynamoDBBaseRepository) {
+		((DynamoDBBaseRepository<?>) repository).warmUp();
+	    }
+	}
+    }
+
+    /**
+     * Syncs the schemas of all the registered entities at once. Tables are
+     * described and created concurrently, then polled together with growing
+     * delays until they are active. The tables that could not be created or
+     * are invalid are reported in a single exception.
+     */
+    public void syncAllSchemas(final boolean createTablesIfNotExist) {
+	List<DynamoDBBaseRepository<?>> repositories = new ArrayList<DynamoDBBaseRepository<?>>();
+	for (Object repository : getAllRepositories().values()) {
+	    if (repository instanceof DynamoDBBaseRepository) {
+		repositories.add((DynamoDBBaseRepository<?>) repository);
+	    }
+	}
+
+	Map<String, String> failures = new LinkedHashMap<String, String>();
+	List<FutureTask<Boolean>> results = new ArrayList<FutureTask<Boolean>>();
+	for (final DynamoDBBaseRepository<?> repository : repositories) {
+	    FutureTask<Boolean> result = new FutureTask<Boolean>(new Callable<Boolean>() {
+		@Override
+		public Boolean call() {
+		    if (repository.describeTable()) {
+			return false;
+		    }
+		    if (!createTablesIfNotExist) {
+			throw new DataValidationException("Table not found");
+		    }
+
+		    repository.createTable();
+		    return true;
+		}
+	    });
+	    batchExecutor.execute(result);
+	    results.add(result);
+	}
+
+	List<DynamoDBBaseRepository<?>> creating = new ArrayList<DynamoDBBaseRepository<?>>();
+	List<DynamoDBBaseRepository<?>> existing = new ArrayList<DynamoDBBaseRepository<?>>();
+	for (int i = 0; i < repositories.size(); i++) {
+	    DynamoDBBaseRepository<?> repository = repositories.get(i);
+	    try {
+		(results.get(i).get() ? creating : existing).add(repository);
+	    } catch (ExecutionException e) {
+		failures.put(repository.getTable().getTableName(),
+			e.getCause().toString());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new DataException("Unexpected interruption while syncing schemas");
+	    }
+	}
+
+	waitForActiveTables(creating, failures);
+
+	// existing tables were described above, validating them is local
+	for (DynamoDBBaseRepository<?> repository : existing) {
+	    List<SchemaValidationError> errors = new ArrayList<SchemaValidationError>();
+	    if (!repository.isValid(errors)) {
+		failures.put(repository.getTable().getTableName(), "invalid " + errors);
+	    }
+	}
+
+	if (!failures.isEmpty()) {
+	    throw new DataValidationException("Could not sync the schemas of "
+		    + failures.size() + " tables: " + failures);
+	}
+    }
+
+    private void waitForActiveTables(List<DynamoDBBaseRepository<?>> creating,
+	    Map<String, String> failures) {
+	long deadline = System.currentTimeMillis() + SCHEMA_SYNC_TIMEOUT_MILLIS;
+	long delayMillis = SCHEMA_POLL_MIN_DELAY_MILLIS;
+	List<DynamoDBBaseRepository<?>> pending = new ArrayList<DynamoDBBaseRepository<?>>(
+		creating);
+	while (!pending.isEmpty()) {
+	    Iterator<DynamoDBBaseRepository<?>> iterator = pending.iterator();
+	    while (iterator.hasNext()) {
+		DynamoDBBaseRepository<?> repository = iterator.next();
+		try {
+		    if (repository.isTableActive()) {
+			iterator.remove();
+		    }
+		} catch (AmazonClientException e) {
+		    // the table may not be visible yet, it is polled again
+		    LOG.debug("Could not describe table "
+			    + repository.getTable().getTableName() + ": " + e);
+		}
+	    }
+
+	    if (pending.isEmpty()) {
+		return;
+	    }
+	    if (System.currentTimeMillis() + delayMillis > deadline) {
+		for (DynamoDBBaseRepository<?> repository : pending) {
+		    failures.put(repository.getTable().getTableName(),
+			    "not active after " + SCHEMA_SYNC_TIMEOUT_MILLIS + " millis");
+		}
+		return;
+	    }
+
+	    try {
+		Thread.sleep(delayMillis);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new DataException("Unexpected interruption while syncing schemas");
+	    }
+	    delayMillis = Math.min(delayMillis * 2, SCHEMA_POLL_MAX_DELAY_MILLIS);
+	}
+    }
+
+    public void shutdown() {
+	unregisterMBeans();
+	batchExecutor.shutdown();
+	dynamoDB.shutdown();
+    }
+
+    private void registerTableMetrics(String tableName) {
+	MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    // several entity managers of one JVM can map the same table
+	    ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=TableMetrics,manager="
+		    + Integer.toHexString(System.identityHashCode(this)) + ",name="
+		    + tableName);
+
+	    // the bean of an entity added again is replaced
+	    if (mBeanServer.isRegistered(name)) {
+		mBeanServer.unregisterMBean(name);
+	    }
+	    mBeanServer.registerMBean(new TableMetrics(this, tableName), name);
+	    registeredMBeans.add(name);
+	} catch (JMException e) {
+	    LOG.warn("Could not register metrics bean of table " + tableName, e);
+	}
+    }
+
+    private void unregisterMBeans() {
+	MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+	for (ObjectName name : registeredMBeans) {
+	    try {
+		if (mBeanServer.isRegistered(name)) {
+		    mBeanServer.unregisterMBean(name);
+		}
+	    } catch (JMException e) {
+		LOG.warn("Could not unregister metrics bean " + name, e);
+	    }
+	}
+	registeredMBeans.clear();
+    }
+
     @Override
     public <T> void addEntity(Class<T> entityClass, EntityToItemMapper entityToItemMapper,
 	    ItemToEntityMapper<T> itemToEntityMapper,
 	    EntitySchemaSupport entitySchemaSupport) {
-	getAllRepositories().put(entityClass,
-		new DynamoDBBaseRepository<T>(new DynamoDB(dynamoDB), entityToItemMapper,
-			itemToEntityMapper, entitySchemaSupport, entityClass));
+	DynamoDBBaseRepository<T> repository = new DynamoDBBaseRepository<T>(
+		documentClient, dynamoDB, entityToItemMapper, itemToEntityMapper,
+		entitySchemaSupport, entityClass, this);
+	repository.setBatchExecutor(batchExecutor);
+	repository.setMetricsRegistry(metricsRegistry);
+
+	getAllRepositories().put(entityClass, repository);
+	asyncRepositories.put(entityClass,
+		new DynamoDBAsyncRepository<T>(dynamoDB, repository));
+	registerTableMetrics(repository.getTable().getTableName());
     }
 
 }
@@ -1,10 +1,17 @@
 package org.devspark.aws.lorm.dynamodb;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -28,8 +35,11 @@ import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.IndexStatus;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndex;
 import com.amazonaws.services.dynamodbv2.model.Projection;
 import com.amazonaws.services.dynamodbv2.model.ProjectionType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
@@ -37,6 +47,7 @@ import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
 
 public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
     private final static Log LOG = LogFactory.getLog(DynamoDBSchemaSupport.class);
@@ -47,6 +58,10 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
     private final Class<T> entityClass;
     private final EntitySchemaSupport entitySchemaSupport;
     private final Set<Index> entityIndexes;
+    private final Map<String, IndexSettings> indexSettings;
+    private final String rangeKeyName;
+    private final ConcurrentMap<Class<?>, AttributeType> attributeTypes = new ConcurrentHashMap<Class<?>, AttributeType>();
+    private final ConcurrentMap<String, AtomicReferenceArray<AttributeDefinition>> attributeDefinitions = new ConcurrentHashMap<String, AtomicReferenceArray<AttributeDefinition>>();
     private final long DELETE_TABLE_TIMEOUT = 60000;
 
     public DynamoDBSchemaSupport(DynamoDB dynamoDB,
@@ -57,6 +72,19 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
         this.entityClass = entityClass;
         table = getDynamoDbTable();
         entityIndexes = getIndexes();
+        rangeKeyName = getRangeKeyField();
+        indexSettings = getIndexSettings();
+
+        // key attributes are known upfront, the rest are added when first read
+        getAttributeDefinition(idHandler.getIdFieldName(), String.class);
+        if (rangeKeyName != null) {
+            getAttributeDefinition(rangeKeyName, String.class);
+        }
+        for (Index index : entityIndexes) {
+            for (String attributeName : index.getAttributeNames()) {
+                getAttributeDefinition(attributeName.trim(), String.class);
+            }
+        }
     }
 
     public Class<T> getEntityClass() {
@@ -95,6 +123,127 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
         return entityIndexes;
     }
 
+    /**
+     * Name of the range key of the table, null when the key is the id alone.
+     */
+    protected String getRangeKeyName() {
+        return rangeKeyName;
+    }
+
+    /**
+     * True for indexes sharing the hash key of a table with a range key, they
+     * are created as local secondary indexes.
+     */
+    protected boolean isLocalIndex(Index index) {
+        return rangeKeyName != null && index.getAttributeNames().size() == 2
+                && index.getAttributeNames().get(0).trim()
+                        .equals(idHandler.getIdFieldName());
+    }
+
+    /**
+     * Attributes copied to the index, null when it projects all of them.
+     */
+    protected Set<String> getProjectedAttributes(Index index) {
+        IndexSettings settings = indexSettings.get(index.getName());
+        if (settings == null || settings.projection() == ProjectionType.ALL) {
+            return null;
+        }
+
+        Set<String> attributeNames = new HashSet<String>();
+        attributeNames.add(idHandler.getIdFieldName());
+        if (rangeKeyName != null) {
+            attributeNames.add(rangeKeyName);
+        }
+        for (String attributeName : index.getAttributeNames()) {
+            attributeNames.add(attributeName.trim());
+        }
+        attributeNames.addAll(Arrays.asList(settings.include()));
+
+        return attributeNames;
+    }
+
+    private Map<String, IndexSettings> getIndexSettings() {
+        Set<String> indexNames = new HashSet<String>();
+        for (Index index : entityIndexes) {
+            indexNames.add(index.getName());
+        }
+
+        Map<String, IndexSettings> settingsByIndex = new HashMap<String, IndexSettings>();
+        for (IndexSettings settings : entityClass
+                .getAnnotationsByType(IndexSettings.class)) {
+            String indexName = getIndexName(settings.columnList());
+            if (!indexNames.contains(indexName)) {
+                throw new DataValidationException("No index on " + settings.columnList()
+                        + " in table " + getTable().getTableName() + " for its settings");
+            }
+            if ((settings.projection() == ProjectionType.INCLUDE) == (settings
+                    .include().length == 0)) {
+                throw new DataValidationException("Index " + indexName
+                        + " should list its included attributes with an INCLUDE"
+                        + " projection, and only then");
+            }
+
+            settingsByIndex.put(indexName, settings);
+        }
+
+        return settingsByIndex;
+    }
+
+    private String getRangeKeyField() {
+        String rangeKeyField = null;
+
+        Class<?> currentClass = entityClass;
+        while (currentClass != null && !Object.class.equals(currentClass)) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (field.getAnnotation(RangeKey.class) == null) {
+                    continue;
+                }
+
+                if (rangeKeyField != null) {
+                    throw new DataValidationException(
+                            "Only one range key is supported: " + entityClass.getName());
+                }
+                if (!String.class.equals(field.getType()) && !isNumber(field.getType())) {
+                    throw new DataValidationException("Range key " + field.getName()
+                            + " of " + entityClass.getName()
+                            + " should be a String or a number");
+                }
+
+                rangeKeyField = field.getName();
+            }
+
+            currentClass = currentClass.getSuperclass();
+        }
+
+        return rangeKeyField;
+    }
+
+    private static boolean isNumber(Class<?> type) {
+        return Number.class.isAssignableFrom(type)
+                || (type.isPrimitive() && !boolean.class.equals(type)
+                        && !char.class.equals(type));
+    }
+
+    /**
+     * Key type of the attribute, numbers for numeric fields of the entity and
+     * strings otherwise (ids and references).
+     */
+    private ScalarAttributeType getKeyAttributeType(String attributeName) {
+        Class<?> currentClass = entityClass;
+        while (currentClass != null && !Object.class.equals(currentClass)) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (field.getName().equals(attributeName)) {
+                    return isNumber(field.getType()) ? ScalarAttributeType.N
+                            : ScalarAttributeType.S;
+                }
+            }
+
+            currentClass = currentClass.getSuperclass();
+        }
+
+        return ScalarAttributeType.S;
+    }
+
     @Override
     public boolean isValid(final List<SchemaValidationError> errors) {
 
@@ -167,22 +316,24 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
 
         javax.persistence.Index[] tableIndexes = table.indexes();
         for (javax.persistence.Index tableIndex : tableIndexes) {
-            List<String> fieldList = Arrays.asList(tableIndex.columnList().split(","));
-            StringBuilder indexName = new StringBuilder();
-            for (String fieldName : fieldList) {
-                indexName.append(indexName.length() == 0 ? "." : "-")
-                        .append(fieldName.trim());
-            }
-
             Index index = new Index();
-            index.setName(getTable().getTableName() + indexName.toString());
-            index.setAttributeNames(fieldList);
+            index.setName(getIndexName(tableIndex.columnList()));
+            index.setAttributeNames(Arrays.asList(tableIndex.columnList().split(",")));
             indexes.add(index);
         }
 
         return indexes;
     }
 
+    private String getIndexName(String columnList) {
+        StringBuilder indexName = new StringBuilder();
+        for (String fieldName : columnList.split(",")) {
+            indexName.append(indexName.length() == 0 ? "." : "-").append(fieldName.trim());
+        }
+
+        return getTable().getTableName() + indexName;
+    }
+
     private AttributeType getAttributeType(String scalarAttributeType) {
         AttributeType attrType;
         if (scalarAttributeType.equals(ScalarAttributeType.S.toString())) {
@@ -200,6 +351,41 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
 
     }
 
+    /**
+     * Definition of an attribute read from DynamoDB, shared by every item of
+     * the entity so mapping an item does not allocate attribute metadata.
+     */
+    protected AttributeDefinition getAttributeDefinition(String attributeName,
+            Class<?> valueClass) {
+        AttributeType attributeType = attributeTypes.get(valueClass);
+        if (attributeType == null) {
+            attributeType = getAttributeType(valueClass);
+            attributeTypes.put(valueClass, attributeType);
+        }
+
+        AtomicReferenceArray<AttributeDefinition> definitions = attributeDefinitions
+                .get(attributeName);
+        if (definitions == null) {
+            definitions = new AtomicReferenceArray<AttributeDefinition>(
+                    AttributeType.values().length);
+            AtomicReferenceArray<AttributeDefinition> existing = attributeDefinitions
+                    .putIfAbsent(attributeName, definitions);
+            if (existing != null) {
+                definitions = existing;
+            }
+        }
+
+        AttributeDefinition definition = definitions.get(attributeType.ordinal());
+        if (definition == null) {
+            definition = new AttributeDefinition(attributeName, attributeType, null);
+            if (!definitions.compareAndSet(attributeType.ordinal(), null, definition)) {
+                definition = definitions.get(attributeType.ordinal());
+            }
+        }
+
+        return definition;
+    }
+
     protected AttributeType getAttributeType(Class<?> attributeClass) {
         // TODO add other supported types
         AttributeType attrType;
@@ -224,9 +410,7 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
 
         boolean isNewTable = false;
 
-        try {
-            getTable().describe();
-        } catch (ResourceNotFoundException ex) {
+        if (!describeTable()) {
             if (createTableIfNotExists) {
                 isNewTable = true;
             } else {
@@ -236,71 +420,7 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
         }
 
         if (createTableIfNotExists && isNewTable) {
-
-            // TODO assuming global secondary indexes, first approach will focus
-            // on facilitate finding on ManyToOne relationships
-            List<com.amazonaws.services.dynamodbv2.model.AttributeDefinition> indexAttrDefs = new ArrayList<com.amazonaws.services.dynamodbv2.model.AttributeDefinition>();
-            List<GlobalSecondaryIndex> secondaryIndexes = new ArrayList<>();
-            for (Index descriptorIndex : entityIndexes) {
-
-                // TODO get parameters from configuration
-                // TODO define projection attributes
-                GlobalSecondaryIndex tableIndex = new GlobalSecondaryIndex()
-                        .withIndexName(descriptorIndex.getName())
-                        .withProvisionedThroughput(new ProvisionedThroughput()
-                                .withReadCapacityUnits(100L).withWriteCapacityUnits(100L))
-                        .withProjection(
-                                new Projection().withProjectionType(ProjectionType.ALL));
-
-                if (descriptorIndex.getAttributeNames() == null
-                        || descriptorIndex.getAttributeNames().size() != 1) {
-                    throw new DataValidationException("Error while creating index "
-                            + descriptorIndex.getName() + " for table "
-                            + getTable().getTableName()
-                            + ". Reason: expected only one attribute for the index");
-                }
-
-                String attrNameToIndex = descriptorIndex.getAttributeNames().get(0);
-                // TODO validate attribute
-
-                ArrayList<KeySchemaElement> indexKeySchema = new ArrayList<KeySchemaElement>();
-                indexKeySchema.add(new KeySchemaElement()
-                        .withAttributeName(attrNameToIndex).withKeyType(KeyType.HASH));
-
-                tableIndex.setKeySchema(indexKeySchema);
-
-                secondaryIndexes.add(tableIndex);
-
-                // TODO assuming index will be used for ManyToOne relationships,
-                // were attribute to index is an id and ids are Strings
-                indexAttrDefs
-                        .add(new com.amazonaws.services.dynamodbv2.model.AttributeDefinition(
-                                attrNameToIndex, ScalarAttributeType.S));
-            }
-
-            List<com.amazonaws.services.dynamodbv2.model.AttributeDefinition> attrDefs = new ArrayList<com.amazonaws.services.dynamodbv2.model.AttributeDefinition>();
-            // TODO assuming String id
-            attrDefs.add(new com.amazonaws.services.dynamodbv2.model.AttributeDefinition(
-                    idHandler.getIdFieldName(), ScalarAttributeType.S));
-            attrDefs.addAll(indexAttrDefs);
-
-            List<KeySchemaElement> keys = new ArrayList<KeySchemaElement>();
-            keys.add(new KeySchemaElement(idHandler.getIdFieldName(), KeyType.HASH));
-
-            // TODO get this from configuration
-            ProvisionedThroughput provisionedThroughput = new ProvisionedThroughput();
-            provisionedThroughput.setReadCapacityUnits(100L);
-            provisionedThroughput.setWriteCapacityUnits(100L);
-
-            CreateTableRequest createTableReq = new CreateTableRequest()
-                    .withTableName(getTable().getTableName()).withKeySchema(keys);
-            createTableReq.setAttributeDefinitions(attrDefs);
-            createTableReq.setProvisionedThroughput(provisionedThroughput);
-            if (!secondaryIndexes.isEmpty()) {
-                createTableReq.withGlobalSecondaryIndexes(secondaryIndexes);
-            }
-
-            table = dynamoDB.createTable(createTableReq);
+            createTable();
             try {
                 table.waitForActive();
             } catch (InterruptedException ex) {
@@ -321,6 +441,149 @@ public class DynamoDBSchemaSupport<T> implements SchemaSupport<T> {
         return true;
     }
 
+    /**
+     * Describes the table, false when it does not exist.
+     */
+    boolean describeTable() {
+        try {
+            getTable().describe();
+            return true;
+        } catch (ResourceNotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends the creation of the table, it is not active yet when this
+     * returns.
+     */
+    void createTable() {
+        table = dynamoDB.createTable(buildCreateTableRequest());
+    }
+
+    /**
+     * Describes the table again, true when it and its global indexes are
+     * active.
+     */
+    boolean isTableActive() {
+        TableDescription description = getTable().describe();
+        if (!TableStatus.ACTIVE.toString().equals(description.getTableStatus())) {
+            return false;
+        }
+
+        if (description.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndexDescription index : description
+                    .getGlobalSecondaryIndexes()) {
+                if (!IndexStatus.ACTIVE.toString().equals(index.getIndexStatus())) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private CreateTableRequest buildCreateTableRequest() {
+        // each key attribute is defined once, even when shared by indexes
+        Map<String, ScalarAttributeType> keyAttrTypes = new LinkedHashMap<String, ScalarAttributeType>();
+        // TODO assuming String id
+        keyAttrTypes.put(idHandler.getIdFieldName(), ScalarAttributeType.S);
+        if (rangeKeyName != null) {
+            keyAttrTypes.put(rangeKeyName, getKeyAttributeType(rangeKeyName));
+        }
+
+        // indexes on the hash key of a table with a range key are local,
+        // the others are global
+        List<GlobalSecondaryIndex> secondaryIndexes = new ArrayList<>();
+        List<LocalSecondaryIndex> localIndexes = new ArrayList<>();
+        for (Index descriptorIndex : entityIndexes) {
+            if (descriptorIndex.getAttributeNames() == null
+                    || descriptorIndex.getAttributeNames().isEmpty()
+                    || descriptorIndex.getAttributeNames().size() > 2) {
+                throw new DataValidationException("Error while creating index "
+                        + descriptorIndex.getName() + " for table "
+                        + getTable().getTableName()
+                        + ". Reason: expected one or two attributes for the index");
+            }
+
+            // TODO validate attribute
+            ArrayList<KeySchemaElement> indexKeySchema = new ArrayList<KeySchemaElement>();
+            String attrNameToIndex = descriptorIndex.getAttributeNames().get(0).trim();
+            indexKeySchema.add(new KeySchemaElement()
+                    .withAttributeName(attrNameToIndex).withKeyType(KeyType.HASH));
+            if (!keyAttrTypes.containsKey(attrNameToIndex)) {
+                // TODO assuming index will be used for ManyToOne
+                // relationships, were attribute to index is an id and ids
+                // are Strings
+                keyAttrTypes.put(attrNameToIndex, ScalarAttributeType.S);
+            }
+
+            if (descriptorIndex.getAttributeNames().size() == 2) {
+                String rangeAttrName = descriptorIndex.getAttributeNames().get(1).trim();
+                indexKeySchema.add(new KeySchemaElement()
+                        .withAttributeName(rangeAttrName).withKeyType(KeyType.RANGE));
+                if (!keyAttrTypes.containsKey(rangeAttrName)) {
+                    keyAttrTypes.put(rangeAttrName, getKeyAttributeType(rangeAttrName));
+                }
+            }
+
+            IndexSettings settings = indexSettings.get(descriptorIndex.getName());
+            Projection projection = new Projection().withProjectionType(
+                    settings != null ? settings.projection() : ProjectionType.ALL);
+            if (settings != null && settings.include().length > 0) {
+                projection.withNonKeyAttributes(settings.include());
+            }
+            if (isLocalIndex(descriptorIndex)) {
+                localIndexes.add(new LocalSecondaryIndex()
+                        .withIndexName(descriptorIndex.getName())
+                        .withKeySchema(indexKeySchema).withProjection(projection));
+            } else {
+                secondaryIndexes.add(new GlobalSecondaryIndex()
+                        .withIndexName(descriptorIndex.getName())
+                        .withKeySchema(indexKeySchema)
+                        .withProvisionedThroughput(new ProvisionedThroughput()
+                                .withReadCapacityUnits(
+                                        settings != null ? settings.readUnits() : 100L)
+                                .withWriteCapacityUnits(
+                                        settings != null ? settings.writeUnits() : 100L))
+                        .withProjection(projection));
+            }
+        }
+
+        List<com.amazonaws.services.dynamodbv2.model.AttributeDefinition> attrDefs = new ArrayList<com.amazonaws.services.dynamodbv2.model.AttributeDefinition>();
+        for (Map.Entry<String, ScalarAttributeType> keyAttrType : keyAttrTypes
+                .entrySet()) {
+            attrDefs.add(new com.amazonaws.services.dynamodbv2.model.AttributeDefinition(
+                    keyAttrType.getKey(), keyAttrType.getValue()));
+        }
+
+        List<KeySchemaElement> keys = new ArrayList<KeySchemaElement>();
+        keys.add(new KeySchemaElement(idHandler.getIdFieldName(), KeyType.HASH));
+        if (rangeKeyName != null) {
+            keys.add(new KeySchemaElement(rangeKeyName, KeyType.RANGE));
+        }
+
+        TableCapacity capacity = entityClass.getAnnotation(TableCapacity.class);
+        ProvisionedThroughput provisionedThroughput = new ProvisionedThroughput();
+        provisionedThroughput
+                .setReadCapacityUnits(capacity != null ? capacity.readUnits() : 100L);
+        provisionedThroughput
+                .setWriteCapacityUnits(capacity != null ? capacity.writeUnits() : 100L);
+
+        CreateTableRequest createTableReq = new CreateTableRequest()
+                .withTableName(getTable().getTableName()).withKeySchema(keys);
+        createTableReq.setAttributeDefinitions(attrDefs);
+        createTableReq.setProvisionedThroughput(provisionedThroughput);
+        if (!secondaryIndexes.isEmpty()) {
+            createTableReq.withGlobalSecondaryIndexes(secondaryIndexes);
+        }
+        if (!localIndexes.isEmpty()) {
+            createTableReq.withLocalSecondaryIndexes(localIndexes);
+        }
+
+        return createTableReq;
+    }
+
     @Override
     public boolean deleteTable() {
         return deleteTable(getTable().getTableName(), DELETE_TABLE_TIMEOUT);
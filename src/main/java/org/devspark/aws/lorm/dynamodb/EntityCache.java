@@ -0,0 +1,145 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+/**
+ * Read-through cache of the items of one entity, keyed by id. Least recently
+ * used items are evicted when the max size is reached and entries expire after
+ * a TTL. Missing ids are cached too (negative caching) with their own TTL.
+ * Items are cached instead of entities, so every hit is mapped to a new
+ * instance that callers can freely modify.
+ */
+public class EntityCache {
+
+    private final static Item MISSING = new Item();
+
+    private final TokenBucket.Clock clock;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    private long generation;
+    private long hits;
+    private long negativeHits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param negativeTtlMillis
+     *            TTL of missing ids, 0 disables negative caching
+     */
+    public EntityCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this(maxSize, ttlMillis, negativeTtlMillis, TokenBucket.SYSTEM_CLOCK);
+    }
+
+    EntityCache(int maxSize, long ttlMillis, long negativeTtlMillis,
+            TokenBucket.Clock clock) {
+        this.clock = clock;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached item, {@link #isMissing(Item)} for ids known to be
+     * missing, or null when the id is not cached.
+     */
+    public synchronized Item get(String id) {
+        CacheEntry entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        if (entry.expiresAt - clock.nanoTime() < 0) {
+            entries.remove(id);
+            expirations++;
+            misses++;
+            return null;
+        }
+
+        if (entry.item == MISSING) {
+            negativeHits++;
+        } else {
+            hits++;
+        }
+
+        return entry.item;
+    }
+
+    public static boolean isMissing(Item item) {
+        return item == MISSING;
+    }
+
+    /**
+     * Generation to be passed to {@link #put(String, Item, long)}, taken before
+     * reading the item from the table.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the item read from the table, or the id as missing when the item
+     * is null. Ignored when an invalidation happened since the given
+     * generation, the item could be stale.
+     */
+    public synchronized void put(String id, Item item, long readGeneration) {
+        if (readGeneration != generation) {
+            return;
+        }
+
+        if (item == null) {
+            if (negativeTtlNanos > 0) {
+                entries.put(id, new CacheEntry(MISSING, clock.nanoTime() + negativeTtlNanos));
+            }
+        } else {
+            entries.put(id, new CacheEntry(item, clock.nanoTime() + ttlNanos));
+        }
+    }
+
+    public synchronized void invalidate(String id) {
+        generation++;
+        entries.remove(id);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized EntityCacheStatistics getStatistics() {
+        return new EntityCacheStatistics(entries.size(), hits, negativeHits, misses,
+                evictions, expirations);
+    }
+
+    private static class CacheEntry {
+        private final Item item;
+        private final long expiresAt;
+
+        CacheEntry(Item item, long expiresAt) {
+            this.item = item;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
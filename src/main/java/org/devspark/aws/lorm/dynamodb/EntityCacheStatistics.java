@@ -0,0 +1,64 @@
+package org.devspark.aws.lorm.dynamodb;
+
+/**
+ * Snapshot of the counters of an {@link EntityCache}.
+ */
+public class EntityCacheStatistics {
+
+    private final int size;
+    private final long hits;
+    private final long negativeHits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+
+    public EntityCacheStatistics(int size, long hits, long negativeHits, long misses,
+            long evictions, long expirations) {
+        this.size = size;
+        this.hits = hits;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Lookups of ids cached as missing.
+     */
+    public long getNegativeHits() {
+        return negativeHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public double getHitRatio() {
+        long lookups = hits + negativeHits + misses;
+        return lookups == 0 ? 0 : (double) (hits + negativeHits) / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCacheStatistics [size=" + size + ", hits=" + hits
+                + ", negativeHits=" + negativeHits + ", misses=" + misses
+                + ", evictions=" + evictions + ", expirations=" + expirations + "]";
+    }
+
+}
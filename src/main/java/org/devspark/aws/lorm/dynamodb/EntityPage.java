@@ -0,0 +1,34 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.List;
+
+/**
+ * One page of a paginated query or scan. The next page token is opaque and
+ * null on the last page.
+ */
+public class EntityPage<T> {
+
+    private final List<T> content;
+    private final String nextPageToken;
+
+    public EntityPage(List<T> content, String nextPageToken) {
+        this.content = content;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * Token to pass to read the next page, null when this page is the last one.
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+
+}
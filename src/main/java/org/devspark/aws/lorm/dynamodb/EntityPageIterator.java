@@ -0,0 +1,103 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.devspark.aws.lorm.schema.Index;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemCollection;
+import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+/**
+ * Lazily maps a query or scan result page by page. Only the current page is
+ * kept in memory, the next one is fetched when the current one is consumed.
+ * Pages of an index are mapped like the other index queries (see
+ * {@link DynamoDBBaseRepository#mapIndexItems(List, Index)}).
+ */
+class EntityPageIterator<T, R> implements Iterator<T> {
+
+    private final DynamoDBBaseRepository<T> repository;
+    private final Index index;
+    private Iterator<Page<Item, R>> pages;
+    private Iterator<T> currentPage = Collections.<T> emptyIterator();
+
+    EntityPageIterator(DynamoDBBaseRepository<T> repository,
+            ItemCollection<R> itemCollection, Index index) {
+        this.repository = repository;
+        this.index = index;
+        this.pages = itemCollection.pages().iterator();
+    }
+
+    /**
+     * The index is the one queried, null for scans and table queries.
+     */
+    static <T, R> Stream<T> stream(DynamoDBBaseRepository<T> repository,
+            ItemCollection<R> itemCollection, Index index) {
+        final EntityPageIterator<T, R> iterator = new EntityPageIterator<T, R>(
+                repository, itemCollection, index);
+
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        iterator.close();
+                    }
+                });
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (pages == null || !nextPageAvailable()) {
+                close();
+                return false;
+            }
+
+            List<Item> items = new ArrayList<Item>();
+            for (Item item : pages.next()) {
+                items.add(item);
+            }
+            currentPage = repository.mapIndexItems(items, index).iterator();
+        }
+
+        return true;
+    }
+
+    private boolean nextPageAvailable() {
+        try {
+            return pages.hasNext();
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+            return false;
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return currentPage.next();
+    }
+
+    /**
+     * Stops the iteration, no more pages are fetched and the current one is
+     * released.
+     */
+    void close() {
+        pages = null;
+        currentPage = Collections.<T> emptyIterator();
+    }
+}
@@ -0,0 +1,70 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identity map of the entities loaded by the current thread, opened and closed
+ * by the caller through {@link DynamoDBEntityManager#openSession()}. While the
+ * session is open every (entity class, id) is loaded at most once, repeated
+ * lookups return the same instance without a round trip.
+ *
+ * <pre>
+ * try (EntitySession session = entityManager.openSession()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class EntitySession implements AutoCloseable {
+
+    private final DynamoDBEntityManager entityManager;
+    private final Map<Class<?>, Map<String, Object>> entities = new HashMap<Class<?>, Map<String, Object>>();
+
+    EntitySession(DynamoDBEntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * True when the id was already loaded, even if it was not found.
+     */
+    public boolean contains(Class<?> entityClass, String id) {
+        Map<String, Object> classEntities = entities.get(entityClass);
+        return classEntities != null && classEntities.containsKey(id);
+    }
+
+    public <T> T get(Class<T> entityClass, String id) {
+        Map<String, Object> classEntities = entities.get(entityClass);
+        return classEntities != null ? entityClass.cast(classEntities.get(id)) : null;
+    }
+
+    /**
+     * Registers the loaded entity, null when the id was not found.
+     */
+    public <T> void put(Class<T> entityClass, String id, T entity) {
+        Map<String, Object> classEntities = entities.get(entityClass);
+        if (classEntities == null) {
+            classEntities = new HashMap<String, Object>();
+            entities.put(entityClass, classEntities);
+        }
+
+        classEntities.put(id, entity);
+    }
+
+    public void remove(Class<?> entityClass, String id) {
+        Map<String, Object> classEntities = entities.get(entityClass);
+        if (classEntities != null) {
+            classEntities.remove(id);
+        }
+    }
+
+    public void clear() {
+        entities.clear();
+    }
+
+    @Override
+    public void close() {
+        entities.clear();
+        entityManager.closeSession(this);
+    }
+
+}
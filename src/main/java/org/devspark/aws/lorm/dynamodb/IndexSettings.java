@@ -0,0 +1,48 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+
+/**
+ * Projection and capacity of an index of the {@link javax.persistence.Table}
+ * annotation of the entity, identified by its column list. Indexes without
+ * settings project all the attributes and get 100 read and write units. Local
+ * indexes use the capacity of their table.
+ * <p>
+ * Queries on an index projecting part of the attributes read the ids from the
+ * index and the entities from the table, unless they ask for projected
+ * attributes only. On tables with a range key they return the projected
+ * attributes alone: these partial entities are kept out of the session and of
+ * the change tracker, and saving one replaces its item with the attributes it
+ * holds.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(IndexSettings.List.class)
+public @interface IndexSettings {
+
+    String columnList();
+
+    ProjectionType projection() default ProjectionType.ALL;
+
+    /**
+     * Attributes copied to the index besides the keys, for INCLUDE projections.
+     */
+    String[] include() default {};
+
+    long readUnits() default 100;
+
+    long writeUnits() default 100;
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface List {
+        IndexSettings[] value();
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with power of two buckets of microseconds, so
+ * percentiles are precise within a factor of two.
+ */
+class LatencyHistogram {
+
+    private final static int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long latencyNanos) {
+        long micros = Math.max(latencyNanos, 0) / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(latencyNanos);
+
+        long currentMax = maxNanos.get();
+        while (latencyNanos > currentMax
+                && !maxNanos.compareAndSet(currentMax, latencyNanos)) {
+            currentMax = maxNanos.get();
+        }
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getMeanMillis() {
+        long currentCount = count.sum();
+        return currentCount == 0 ? 0 : totalNanos.sum() / 1e6 / currentCount;
+    }
+
+    double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0 to 100).
+     */
+    double getPercentileMillis(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                return Math.min((1L << i) / 1e3, getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+}
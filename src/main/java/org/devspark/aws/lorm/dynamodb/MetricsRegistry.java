@@ -0,0 +1,28 @@
+package org.devspark.aws.lorm.dynamodb;
+
+/**
+ * Receives the measures of the requests sent to DynamoDB. Index name is null
+ * for requests on the table itself. Implementations are called concurrently
+ * from the request threads and should not block.
+ */
+public interface MetricsRegistry {
+
+    void recordRequest(String tableName, String indexName, String operation,
+            long latencyNanos, int itemCount);
+
+    void recordError(String tableName, String indexName, String operation,
+            long latencyNanos, boolean throttled);
+
+    /**
+     * Capacity units consumed by a request, read or write units depending on
+     * the operation.
+     */
+    void recordConsumedCapacity(String tableName, String indexName, String operation,
+            double capacityUnits);
+
+    /**
+     * A batch operation is going to be retried because of unprocessed items.
+     */
+    void recordRetry(String tableName, String operation, int unprocessedItems);
+
+}
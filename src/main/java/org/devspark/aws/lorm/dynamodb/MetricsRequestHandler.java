@@ -0,0 +1,360 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Measures every item request sent through the client: it asks DynamoDB for
+ * the consumed capacity (per index) and reports latency, items, capacity and
+ * errors to the metrics registry. Latency includes the retries of the client.
+ */
+class MetricsRequestHandler extends RequestHandler2 {
+
+    private final ThreadLocal<Long> startNanos = new ThreadLocal<Long>();
+    private volatile MetricsRegistry metricsRegistry;
+
+    MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeMarshalling(AmazonWebServiceRequest request) {
+        if (metricsRegistry != null) {
+            requestConsumedCapacity(request);
+        }
+
+        return request;
+    }
+
+    /**
+     * Asks for the consumed capacity per index, capacity requested by the
+     * caller is left as is.
+     */
+    static void requestConsumedCapacity(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest) {
+            GetItemRequest getItemRequest = (GetItemRequest) request;
+            if (getItemRequest.getReturnConsumedCapacity() == null) {
+                getItemRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof PutItemRequest) {
+            PutItemRequest putItemRequest = (PutItemRequest) request;
+            if (putItemRequest.getReturnConsumedCapacity() == null) {
+                putItemRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof UpdateItemRequest) {
+            UpdateItemRequest updateItemRequest = (UpdateItemRequest) request;
+            if (updateItemRequest.getReturnConsumedCapacity() == null) {
+                updateItemRequest
+                        .setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof DeleteItemRequest) {
+            DeleteItemRequest deleteItemRequest = (DeleteItemRequest) request;
+            if (deleteItemRequest.getReturnConsumedCapacity() == null) {
+                deleteItemRequest
+                        .setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof QueryRequest) {
+            QueryRequest queryRequest = (QueryRequest) request;
+            if (queryRequest.getReturnConsumedCapacity() == null) {
+                queryRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof ScanRequest) {
+            ScanRequest scanRequest = (ScanRequest) request;
+            if (scanRequest.getReturnConsumedCapacity() == null) {
+                scanRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof BatchGetItemRequest) {
+            BatchGetItemRequest batchGetItemRequest = (BatchGetItemRequest) request;
+            if (batchGetItemRequest.getReturnConsumedCapacity() == null) {
+                batchGetItemRequest
+                        .setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        } else if (request instanceof BatchWriteItemRequest) {
+            BatchWriteItemRequest batchWriteItemRequest = (BatchWriteItemRequest) request;
+            if (batchWriteItemRequest.getReturnConsumedCapacity() == null) {
+                batchWriteItemRequest
+                        .setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+            }
+        }
+    }
+
+    /**
+     * Capacity consumed by the request of the given result, empty when
+     * DynamoDB did not return it.
+     */
+    static Collection<ConsumedCapacity> getConsumedCapacities(Object result) {
+        ConsumedCapacity consumedCapacity = null;
+        if (result instanceof GetItemResult) {
+            consumedCapacity = ((GetItemResult) result).getConsumedCapacity();
+        } else if (result instanceof PutItemResult) {
+            consumedCapacity = ((PutItemResult) result).getConsumedCapacity();
+        } else if (result instanceof UpdateItemResult) {
+            consumedCapacity = ((UpdateItemResult) result).getConsumedCapacity();
+        } else if (result instanceof DeleteItemResult) {
+            consumedCapacity = ((DeleteItemResult) result).getConsumedCapacity();
+        } else if (result instanceof QueryResult) {
+            consumedCapacity = ((QueryResult) result).getConsumedCapacity();
+        } else if (result instanceof ScanResult) {
+            consumedCapacity = ((ScanResult) result).getConsumedCapacity();
+        } else if (result instanceof BatchGetItemResult) {
+            List<ConsumedCapacity> consumedCapacities = ((BatchGetItemResult) result)
+                    .getConsumedCapacity();
+            return consumedCapacities != null ? consumedCapacities
+                    : Collections.<ConsumedCapacity> emptyList();
+        } else if (result instanceof BatchWriteItemResult) {
+            List<ConsumedCapacity> consumedCapacities = ((BatchWriteItemResult) result)
+                    .getConsumedCapacity();
+            return consumedCapacities != null ? consumedCapacities
+                    : Collections.<ConsumedCapacity> emptyList();
+        }
+
+        return consumedCapacity != null ? Collections.singletonList(consumedCapacity)
+                : Collections.<ConsumedCapacity> emptyList();
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        startNanos.set(System.nanoTime());
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        MetricsRegistry registry = metricsRegistry;
+        long latencyNanos = getLatencyNanos();
+        if (registry == null || response == null) {
+            return;
+        }
+
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        Object result = response.getAwsResponse();
+
+        if (originalRequest instanceof GetItemRequest) {
+            GetItemResult getItemResult = (GetItemResult) result;
+            registry.recordRequest(((GetItemRequest) originalRequest).getTableName(), null,
+                    "GetItem", latencyNanos, getItemResult.getItem() != null ? 1 : 0);
+            recordCapacity(registry, "GetItem", getItemResult.getConsumedCapacity());
+        } else if (originalRequest instanceof PutItemRequest) {
+            registry.recordRequest(((PutItemRequest) originalRequest).getTableName(), null,
+                    "PutItem", latencyNanos, 1);
+            recordCapacity(registry, "PutItem",
+                    ((PutItemResult) result).getConsumedCapacity());
+        } else if (originalRequest instanceof UpdateItemRequest) {
+            registry.recordRequest(((UpdateItemRequest) originalRequest).getTableName(),
+                    null, "UpdateItem", latencyNanos, 1);
+            recordCapacity(registry, "UpdateItem",
+                    ((UpdateItemResult) result).getConsumedCapacity());
+        } else if (originalRequest instanceof DeleteItemRequest) {
+            registry.recordRequest(((DeleteItemRequest) originalRequest).getTableName(),
+                    null, "DeleteItem", latencyNanos, 1);
+            recordCapacity(registry, "DeleteItem",
+                    ((DeleteItemResult) result).getConsumedCapacity());
+        } else if (originalRequest instanceof QueryRequest) {
+            QueryRequest queryRequest = (QueryRequest) originalRequest;
+            QueryResult queryResult = (QueryResult) result;
+            registry.recordRequest(queryRequest.getTableName(),
+                    queryRequest.getIndexName(), "Query", latencyNanos,
+                    toInt(queryResult.getCount()));
+            recordCapacity(registry, "Query", queryResult.getConsumedCapacity());
+        } else if (originalRequest instanceof ScanRequest) {
+            ScanRequest scanRequest = (ScanRequest) originalRequest;
+            ScanResult scanResult = (ScanResult) result;
+            registry.recordRequest(scanRequest.getTableName(), scanRequest.getIndexName(),
+                    "Scan", latencyNanos, toInt(scanResult.getCount()));
+            recordCapacity(registry, "Scan", scanResult.getConsumedCapacity());
+        } else if (originalRequest instanceof BatchGetItemRequest) {
+            BatchGetItemResult batchGetItemResult = (BatchGetItemResult) result;
+            for (String tableName : ((BatchGetItemRequest) originalRequest)
+                    .getRequestItems().keySet()) {
+                List<?> items = batchGetItemResult.getResponses() != null
+                        ? batchGetItemResult.getResponses().get(tableName) : null;
+                registry.recordRequest(tableName, null, "BatchGetItem", latencyNanos,
+                        items != null ? items.size() : 0);
+            }
+            recordCapacity(registry, "BatchGetItem",
+                    batchGetItemResult.getConsumedCapacity());
+        } else if (originalRequest instanceof BatchWriteItemRequest) {
+            BatchWriteItemResult batchWriteItemResult = (BatchWriteItemResult) result;
+            for (Map.Entry<String, List<WriteRequest>> entry : ((BatchWriteItemRequest) originalRequest)
+                    .getRequestItems().entrySet()) {
+                List<WriteRequest> unprocessed = batchWriteItemResult
+                        .getUnprocessedItems() != null
+                                ? batchWriteItemResult.getUnprocessedItems()
+                                        .get(entry.getKey())
+                                : null;
+                registry.recordRequest(entry.getKey(), null, "BatchWriteItem",
+                        latencyNanos, entry.getValue().size()
+                                - (unprocessed != null ? unprocessed.size() : 0));
+            }
+            recordCapacity(registry, "BatchWriteItem",
+                    batchWriteItemResult.getConsumedCapacity());
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        MetricsRegistry registry = metricsRegistry;
+        long latencyNanos = getLatencyNanos();
+        if (registry == null || request == null) {
+            return;
+        }
+
+        boolean throttled = e instanceof ProvisionedThroughputExceededException
+                || (e instanceof AmazonServiceException && "ThrottlingException"
+                        .equals(((AmazonServiceException) e).getErrorCode()));
+
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        String operation = getOperation(originalRequest);
+        if (operation == null) {
+            return;
+        }
+
+        for (String tableName : getTableNames(originalRequest)) {
+            registry.recordError(tableName, getIndexName(originalRequest), operation,
+                    latencyNanos, throttled);
+        }
+    }
+
+    private long getLatencyNanos() {
+        Long start = startNanos.get();
+        startNanos.remove();
+
+        return start != null ? System.nanoTime() - start : 0;
+    }
+
+    private void recordCapacity(MetricsRegistry registry, String operation,
+            ConsumedCapacity consumedCapacity) {
+        if (consumedCapacity == null) {
+            return;
+        }
+
+        recordCapacity(registry, operation, Collections.singletonList(consumedCapacity));
+    }
+
+    private void recordCapacity(MetricsRegistry registry, String operation,
+            Collection<ConsumedCapacity> consumedCapacities) {
+        if (consumedCapacities == null) {
+            return;
+        }
+
+        for (ConsumedCapacity consumedCapacity : consumedCapacities) {
+            String tableName = consumedCapacity.getTableName();
+            Double tableUnits = consumedCapacity.getTable() != null
+                    ? consumedCapacity.getTable().getCapacityUnits()
+                    : consumedCapacity.getCapacityUnits();
+            if (tableUnits != null) {
+                registry.recordConsumedCapacity(tableName, null, operation, tableUnits);
+            }
+
+            recordIndexCapacity(registry, tableName, operation,
+                    consumedCapacity.getGlobalSecondaryIndexes());
+            recordIndexCapacity(registry, tableName, operation,
+                    consumedCapacity.getLocalSecondaryIndexes());
+        }
+    }
+
+    private void recordIndexCapacity(MetricsRegistry registry, String tableName,
+            String operation, Map<String, Capacity> indexCapacities) {
+        if (indexCapacities == null) {
+            return;
+        }
+
+        for (Map.Entry<String, Capacity> entry : indexCapacities.entrySet()) {
+            if (entry.getValue().getCapacityUnits() != null) {
+                registry.recordConsumedCapacity(tableName, entry.getKey(), operation,
+                        entry.getValue().getCapacityUnits());
+            }
+        }
+    }
+
+    private static int toInt(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private static String getOperation(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest) {
+            return "GetItem";
+        } else if (request instanceof PutItemRequest) {
+            return "PutItem";
+        } else if (request instanceof UpdateItemRequest) {
+            return "UpdateItem";
+        } else if (request instanceof DeleteItemRequest) {
+            return "DeleteItem";
+        } else if (request instanceof QueryRequest) {
+            return "Query";
+        } else if (request instanceof ScanRequest) {
+            return "Scan";
+        } else if (request instanceof BatchGetItemRequest) {
+            return "BatchGetItem";
+        } else if (request instanceof BatchWriteItemRequest) {
+            return "BatchWriteItem";
+        }
+
+        return null;
+    }
+
+    private static Collection<String> getTableNames(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest) {
+            return Collections.singleton(((GetItemRequest) request).getTableName());
+        } else if (request instanceof PutItemRequest) {
+            return Collections.singleton(((PutItemRequest) request).getTableName());
+        } else if (request instanceof UpdateItemRequest) {
+            return Collections.singleton(((UpdateItemRequest) request).getTableName());
+        } else if (request instanceof DeleteItemRequest) {
+            return Collections.singleton(((DeleteItemRequest) request).getTableName());
+        } else if (request instanceof QueryRequest) {
+            return Collections.singleton(((QueryRequest) request).getTableName());
+        } else if (request instanceof ScanRequest) {
+            return Collections.singleton(((ScanRequest) request).getTableName());
+        } else if (request instanceof BatchGetItemRequest) {
+            return ((BatchGetItemRequest) request).getRequestItems().keySet();
+        } else if (request instanceof BatchWriteItemRequest) {
+            return ((BatchWriteItemRequest) request).getRequestItems().keySet();
+        }
+
+        return Collections.emptySet();
+    }
+
+    private static String getIndexName(AmazonWebServiceRequest request) {
+        if (request instanceof QueryRequest) {
+            return ((QueryRequest) request).getIndexName();
+        } else if (request instanceof ScanRequest) {
+            return ((ScanRequest) request).getIndexName();
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Snapshot of the measures of one operation (GetItem, Query, ...) on a table or
+ * index, collected by a {@link DefaultMetricsRegistry}.
+ */
+public class OperationStatistics {
+
+    private final static Set<String> READ_OPERATIONS = new HashSet<String>(
+            Arrays.asList("GetItem", "BatchGetItem", "Query", "Scan"));
+
+    private final String tableName;
+    private final String indexName;
+    private final String operation;
+    private final long requestCount;
+    private final long errorCount;
+    private final long throttleCount;
+    private final long retryCount;
+    private final long itemCount;
+    private final double consumedCapacityUnits;
+    private final double meanLatencyMillis;
+    private final double p50LatencyMillis;
+    private final double p99LatencyMillis;
+    private final double maxLatencyMillis;
+
+    public OperationStatistics(String tableName, String indexName, String operation,
+            long requestCount, long errorCount, long throttleCount, long retryCount,
+            long itemCount, double consumedCapacityUnits, double meanLatencyMillis,
+            double p50LatencyMillis, double p99LatencyMillis, double maxLatencyMillis) {
+        this.tableName = tableName;
+        this.indexName = indexName;
+        this.operation = operation;
+        this.requestCount = requestCount;
+        this.errorCount = errorCount;
+        this.throttleCount = throttleCount;
+        this.retryCount = retryCount;
+        this.itemCount = itemCount;
+        this.consumedCapacityUnits = consumedCapacityUnits;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.p50LatencyMillis = p50LatencyMillis;
+        this.p99LatencyMillis = p99LatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Null for the table itself.
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * True when the consumed capacity is read capacity.
+     */
+    public boolean isRead() {
+        return READ_OPERATIONS.contains(operation);
+    }
+
+    /**
+     * Requests sent, failed ones included.
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getThrottleCount() {
+        return throttleCount;
+    }
+
+    /**
+     * Retries of unprocessed batch items.
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Items read or written.
+     */
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    public double getConsumedCapacityUnits() {
+        return consumedCapacityUnits;
+    }
+
+    public double getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+
+    public double getP50LatencyMillis() {
+        return p50LatencyMillis;
+    }
+
+    public double getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStatistics [tableName=" + tableName + ", indexName=" + indexName
+                + ", operation=" + operation + ", requestCount=" + requestCount
+                + ", errorCount=" + errorCount + ", throttleCount=" + throttleCount
+                + ", retryCount=" + retryCount + ", itemCount=" + itemCount
+                + ", consumedCapacityUnits=" + consumedCapacityUnits
+                + ", meanLatencyMillis=" + meanLatencyMillis + ", p50LatencyMillis="
+                + p50LatencyMillis + ", p99LatencyMillis=" + p99LatencyMillis
+                + ", maxLatencyMillis=" + maxLatencyMillis + "]";
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+import org.devspark.aws.lorm.exceptions.DataValidationException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Encodes the last evaluated key of a query or scan as an URL safe token. Key
+ * attributes are strings, numbers or binaries, so the token is written field
+ * by field rather than with Java serialization.
+ */
+final class PageToken {
+
+    private final static int VERSION = 1;
+
+    private PageToken() {
+    }
+
+    /**
+     * Null when there is no next page.
+     */
+    static String encode(Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeByte(VERSION);
+            output.writeByte(lastEvaluatedKey.size());
+            for (Map.Entry<String, AttributeValue> attribute : lastEvaluatedKey.entrySet()) {
+                AttributeValue value = attribute.getValue();
+                output.writeUTF(attribute.getKey());
+                if (value.getS() != null) {
+                    output.writeByte('S');
+                    output.writeUTF(value.getS());
+                } else if (value.getN() != null) {
+                    output.writeByte('N');
+                    output.writeUTF(value.getN());
+                } else if (value.getB() != null) {
+                    ByteBuffer buffer = value.getB().duplicate();
+                    output.writeByte('B');
+                    output.writeShort(buffer.remaining());
+                    while (buffer.hasRemaining()) {
+                        output.writeByte(buffer.get());
+                    }
+                } else {
+                    throw new DataException("Unsupported type of key attribute "
+                            + attribute.getKey());
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new DataException("Could not encode page token: " + e);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Exclusive start key of the token, null for the first page.
+     */
+    static Map<String, AttributeValue> decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+            if (input.readByte() != VERSION) {
+                throw new DataValidationException("Invalid page token " + token);
+            }
+
+            int size = input.readByte();
+            Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+            for (int i = 0; i < size; i++) {
+                String name = input.readUTF();
+                byte type = input.readByte();
+                if (type == 'S') {
+                    key.put(name, new AttributeValue().withS(input.readUTF()));
+                } else if (type == 'N') {
+                    key.put(name, new AttributeValue().withN(input.readUTF()));
+                } else if (type == 'B') {
+                    byte[] value = new byte[input.readUnsignedShort()];
+                    input.readFully(value);
+                    key.put(name, new AttributeValue().withB(ByteBuffer.wrap(value)));
+                } else {
+                    throw new DataValidationException("Invalid page token " + token);
+                }
+            }
+
+            return key;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new DataValidationException("Invalid page token " + token);
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.document.ScanOutcome;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+/**
+ * Scans a table split in segments (Segment / TotalSegments), each segment is
+ * read by a worker of the given executor. At most one page per segment is in
+ * flight, the next page of a segment is requested once the previous one has
+ * been handled.
+ */
+class ParallelScan<T> {
+
+    private final DynamoDBBaseRepository<T> repository;
+    private final int totalSegments;
+    private final CompletionService<SegmentPage> completionService;
+    private final Set<Future<SegmentPage>> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<Future<SegmentPage>, Boolean>());
+    private String filterExpression;
+    private Map<String, String> nameMap;
+    private Map<String, Object> valueMap;
+    private boolean consistentRead;
+
+    ParallelScan(DynamoDBBaseRepository<T> repository, int totalSegments,
+            Executor executor) {
+        if (totalSegments < 1) {
+            throw new IllegalArgumentException(
+                    "Total segments should be at least 1, found: " + totalSegments);
+        }
+
+        this.repository = repository;
+        this.totalSegments = totalSegments;
+        this.completionService = new ExecutorCompletionService<SegmentPage>(executor);
+    }
+
+    /**
+     * Only items matching the filter expression are returned, items are still
+     * read (and consumed capacity) for the whole table.
+     */
+    ParallelScan<T> withFilter(String filterExpression, Map<String, String> nameMap,
+            Map<String, Object> valueMap) {
+        this.filterExpression = filterExpression;
+        this.nameMap = nameMap;
+        this.valueMap = valueMap;
+        return this;
+    }
+
+    ParallelScan<T> withConsistentRead(boolean consistentRead) {
+        this.consistentRead = consistentRead;
+        return this;
+    }
+
+    /**
+     * Scans every segment, handing each mapped page to the handler from the
+     * worker that fetched it. Returns when all segments are fully read.
+     */
+    void scan(ScanSegmentHandler<T> handler) {
+        try {
+            start(handler);
+            while (!pending.isEmpty()) {
+                takeNextPage(handler);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    List<T> scanToList() {
+        final List<T> entities = Collections.synchronizedList(new ArrayList<T>());
+        scan(new ScanSegmentHandler<T>() {
+            @Override
+            public void handle(int segment, List<T> page) {
+                entities.addAll(page);
+            }
+        });
+
+        return new ArrayList<T>(entities);
+    }
+
+    /**
+     * Merges the segments in a lazy stream, pages are returned in the order
+     * they are fetched.
+     */
+    Stream<T> stream() {
+        start(null);
+
+        final Iterator<T> iterator = new Iterator<T>() {
+            private Iterator<T> currentPage = Collections.<T> emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!currentPage.hasNext()) {
+                    if (pending.isEmpty()) {
+                        close();
+                        return false;
+                    }
+
+                    currentPage = takeNextPage(null).entities.iterator();
+                }
+
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return currentPage.next();
+            }
+        };
+
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(iterator,
+                        Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                });
+    }
+
+    private void start(ScanSegmentHandler<T> handler) {
+        for (int segment = 0; segment < totalSegments; segment++) {
+            submit(segment, null, handler);
+        }
+    }
+
+    private void submit(final int segment, final Page<Item, ScanOutcome> previousPage,
+            final ScanSegmentHandler<T> handler) {
+        pending.add(completionService.submit(new Callable<SegmentPage>() {
+            @Override
+            public SegmentPage call() throws Exception {
+                return fetchPage(segment, previousPage, handler);
+            }
+        }));
+    }
+
+    private SegmentPage fetchPage(int segment, Page<Item, ScanOutcome> previousPage,
+            ScanSegmentHandler<T> handler) {
+        Page<Item, ScanOutcome> page;
+        try {
+            if (previousPage == null) {
+                ScanSpec spec = new ScanSpec().withSegment(segment)
+                        .withTotalSegments(totalSegments)
+                        .withConsistentRead(consistentRead);
+                if (filterExpression != null) {
+                    spec.withFilterExpression(filterExpression).withNameMap(nameMap)
+                            .withValueMap(valueMap);
+                }
+                page = repository.getTable().scan(spec).firstPage();
+            } else {
+                page = previousPage.nextPage();
+            }
+        } catch (ResourceNotFoundException ex) {
+            // ignore
+            return new SegmentPage(segment, null, Collections.<T> emptyList());
+        }
+
+        List<Item> items = new ArrayList<Item>(page.size());
+        for (Item item : page) {
+            items.add(item);
+        }
+
+        List<T> entities = repository.mapItems(items);
+        if (handler != null) {
+            handler.handle(segment, entities);
+        }
+
+        return new SegmentPage(segment, page, entities);
+    }
+
+    private SegmentPage takeNextPage(ScanSegmentHandler<T> handler) {
+        SegmentPage segmentPage;
+        try {
+            Future<SegmentPage> result = completionService.take();
+            pending.remove(result);
+            segmentPage = result.get();
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new DataException("Error while scanning table "
+                    + repository.getTable().getTableName() + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new DataException("Error while scanning table "
+                    + repository.getTable().getTableName()
+                    + ". Unexpected interruption");
+        }
+
+        if (segmentPage.page != null && segmentPage.page.hasNextPage()) {
+            submit(segmentPage.segment, segmentPage.page, handler);
+        }
+
+        return segmentPage;
+    }
+
+    /**
+     * Cancels the pages still in flight, no more pages are requested.
+     */
+    void close() {
+        for (Future<SegmentPage> result : pending) {
+            result.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private class SegmentPage {
+        private final int segment;
+        private final Page<Item, ScanOutcome> page;
+        private final List<T> entities;
+
+        SegmentPage(int segment, Page<Item, ScanOutcome> page, List<T> entities) {
+            this.segment = segment;
+            this.page = page;
+            this.entities = entities;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.devspark.aws.lorm.dynamodb;
+
+/**
+ * Access path chosen to query an attribute, as returned by
+ * {@link DynamoDBBaseRepository#explain(String)}. Estimates are based on the
+ * item count and size of the table description, which DynamoDB refreshes about
+ * every six hours, and are -1 when unknown.
+ */
+public class QueryPlan {
+
+    public enum AccessPath {
+        /** Query on the primary key of the table. */
+        KEY_QUERY,
+        /** Query on a secondary index. */
+        INDEX_QUERY,
+        /** Parallel scan of the whole table filtering on the attribute. */
+        FILTERED_SCAN,
+        /** No index and scan fallback disabled, queries are rejected. */
+        NONE
+    }
+
+    private final String tableName;
+    private final String attributeName;
+    private final AccessPath accessPath;
+    private final String indexName;
+    private final int scanSegments;
+    private final long estimatedItemsRead;
+    private final double estimatedReadCapacityUnits;
+
+    public QueryPlan(String tableName, String attributeName, AccessPath accessPath,
+            String indexName, int scanSegments, long estimatedItemsRead,
+            double estimatedReadCapacityUnits) {
+        this.tableName = tableName;
+        this.attributeName = attributeName;
+        this.accessPath = accessPath;
+        this.indexName = indexName;
+        this.scanSegments = scanSegments;
+        this.estimatedItemsRead = estimatedItemsRead;
+        this.estimatedReadCapacityUnits = estimatedReadCapacityUnits;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public AccessPath getAccessPath() {
+        return accessPath;
+    }
+
+    /**
+     * Null unless the access path is an index query.
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * Zero unless the access path is a filtered scan.
+     */
+    public int getScanSegments() {
+        return scanSegments;
+    }
+
+    /**
+     * Items read per query: the whole table for scans, one item for key
+     * queries on tables without a range key, unknown for the other key queries
+     * and for index queries.
+     */
+    public long getEstimatedItemsRead() {
+        return estimatedItemsRead;
+    }
+
+    /**
+     * Eventually consistent read capacity units consumed per query.
+     */
+    public double getEstimatedReadCapacityUnits() {
+        return estimatedReadCapacityUnits;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder plan = new StringBuilder();
+        switch (accessPath) {
+        case KEY_QUERY:
+            plan.append("Query on the primary key of table ").append(tableName);
+            break;
+        case INDEX_QUERY:
+            plan.append("Query on index ").append(indexName);
+            break;
+        case FILTERED_SCAN:
+            plan.append("Parallel scan of table ").append(tableName).append(" in ")
+                    .append(scanSegments).append(" segments filtering on ")
+                    .append(attributeName);
+            break;
+        default:
+            plan.append("No access path to query table ").append(tableName)
+                    .append(" by ").append(attributeName);
+        }
+
+        if (estimatedItemsRead >= 0) {
+            plan.append(", ~").append(estimatedItemsRead).append(" items read");
+        }
+        if (estimatedReadCapacityUnits >= 0) {
+            plan.append(", ~").append(estimatedReadCapacityUnits).append(" RCU");
+        }
+
+        return plan.toString();
+    }
+
+}
@@ -0,0 +1,141 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.devspark.aws.lorm.schema.Index;
+
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+/**
+ * Access paths of the queries of a repository, computed once from the indexes
+ * of the entity. Each hash attribute (and hash and range pair) is mapped to its
+ * index, to the index handle of the Document API and to the name map of its
+ * key condition.
+ */
+class QueryPlanner {
+
+    private final static int READ_UNIT_BYTES = 4096;
+
+    private final Table table;
+    private final String idAttributeName;
+    private final String rangeKeyName;
+    private final Map<String, Index> indexes = new HashMap<String, Index>();
+    private final Map<String, com.amazonaws.services.dynamodbv2.document.Index> tableIndexes = new HashMap<String, com.amazonaws.services.dynamodbv2.document.Index>();
+    private final Map<String, Map<String, String>> nameMaps = new HashMap<String, Map<String, String>>();
+
+    QueryPlanner(Table table, String idAttributeName, String rangeKeyName,
+            Set<Index> entityIndexes) {
+        this.table = table;
+        this.idAttributeName = idAttributeName;
+        this.rangeKeyName = rangeKeyName;
+
+        nameMaps.put(idAttributeName, buildNameMap(idAttributeName));
+        for (Index index : entityIndexes) {
+            List<String> attributeNames = index.getAttributeNames();
+            if (attributeNames == null || attributeNames.isEmpty()) {
+                continue;
+            }
+
+            String hashAttributeName = attributeNames.get(0).trim();
+            if (attributeNames.size() == 1) {
+                // single attribute indexes are preferred for hash only queries
+                indexes.put(hashAttributeName, index);
+            } else {
+                indexes.put(hashAttributeName + "|" + attributeNames.get(1).trim(), index);
+                if (!indexes.containsKey(hashAttributeName)) {
+                    indexes.put(hashAttributeName, index);
+                }
+            }
+
+            tableIndexes.put(index.getName(), table.getIndex(index.getName()));
+            nameMaps.put(hashAttributeName, buildNameMap(hashAttributeName));
+        }
+    }
+
+    private static Map<String, String> buildNameMap(String attributeName) {
+        return Collections.singletonMap(getAlias(attributeName), attributeName);
+    }
+
+    static String getAlias(String attributeName) {
+        return "#" + attributeName.replace('.', '_');
+    }
+
+    boolean isKeyAttribute(String attributeName) {
+        return idAttributeName.equals(attributeName);
+    }
+
+    /**
+     * Index with the given hash attribute, null when there is none.
+     */
+    Index getIndex(String attributeName) {
+        return indexes.get(attributeName);
+    }
+
+    /**
+     * Index with the given hash and range attributes, null when there is none.
+     */
+    Index getIndex(String attributeName, String rangeAttributeName) {
+        return indexes.get(attributeName + "|" + rangeAttributeName);
+    }
+
+    com.amazonaws.services.dynamodbv2.document.Index getTableIndex(Index index) {
+        return tableIndexes.get(index.getName());
+    }
+
+    /**
+     * Read only name map of the key condition on the attribute, null when the
+     * attribute is neither the id nor indexed.
+     */
+    Map<String, String> getNameMap(String attributeName) {
+        return nameMaps.get(attributeName);
+    }
+
+    QueryPlan explain(String attributeName, int scanSegments,
+            TableDescription description) {
+        long itemCount = description != null && description.getItemCount() != null
+                ? description.getItemCount() : -1;
+        long tableSize = description != null && description.getTableSizeBytes() != null
+                ? description.getTableSizeBytes() : -1;
+
+        if (isKeyAttribute(attributeName) && rangeKeyName != null) {
+            // every item of the hash key is read, their count is unknown
+            return new QueryPlan(table.getTableName(), attributeName,
+                    QueryPlan.AccessPath.KEY_QUERY, null, 0, -1, -1);
+        }
+
+        if (isKeyAttribute(attributeName)) {
+            long itemSize = itemCount > 0 ? tableSize / itemCount : -1;
+            return new QueryPlan(table.getTableName(), attributeName,
+                    QueryPlan.AccessPath.KEY_QUERY, null, 0, 1,
+                    itemSize >= 0 ? getReadUnits(itemSize) : -1);
+        }
+
+        Index index = getIndex(attributeName);
+        if (index != null) {
+            return new QueryPlan(table.getTableName(), attributeName,
+                    QueryPlan.AccessPath.INDEX_QUERY, index.getName(), 0, -1, -1);
+        }
+
+        if (scanSegments > 0) {
+            return new QueryPlan(table.getTableName(), attributeName,
+                    QueryPlan.AccessPath.FILTERED_SCAN, null, scanSegments, itemCount,
+                    tableSize >= 0 ? getReadUnits(tableSize) : -1);
+        }
+
+        return new QueryPlan(table.getTableName(), attributeName,
+                QueryPlan.AccessPath.NONE, null, 0, -1, -1);
+    }
+
+    /**
+     * Eventually consistent reads cost half a unit per 4KB.
+     */
+    private static double getReadUnits(long bytes) {
+        return Math.max(1, (bytes + READ_UNIT_BYTES - 1) / READ_UNIT_BYTES) / 2.0;
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Range (sort) key of the table of the entity, the id being the hash key. The
+ * field should be a String or a number, dates are best stored as ISO 8601
+ * strings so they sort chronologically.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RangeKey {
+
+}
@@ -0,0 +1,76 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * Holds the requests sent through the client until their table or index has
+ * capacity left, according to the {@link CapacityRateLimiter} set. The wait
+ * blocks the sending thread, an executor thread for the async client.
+ */
+class RateLimitingRequestHandler extends RequestHandler2 {
+
+    private final ThreadLocal<CapacityRateLimiter.Reservation> reservations = new ThreadLocal<CapacityRateLimiter.Reservation>();
+    private volatile CapacityRateLimiter rateLimiter;
+
+    CapacityRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    void setRateLimiter(CapacityRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeMarshalling(AmazonWebServiceRequest request) {
+        if (rateLimiter != null) {
+            MetricsRequestHandler.requestConsumedCapacity(request);
+        }
+
+        return request;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        CapacityRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            CapacityRateLimiter.Reservation reservation = limiter
+                    .acquire(request.getOriginalRequest());
+            if (reservation != null) {
+                reservations.set(reservation);
+            }
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        CapacityRateLimiter.Reservation reservation = takeReservation();
+        if (reservation == null) {
+            return;
+        }
+
+        if (response != null) {
+            reservation.release(response.getAwsResponse());
+        } else {
+            reservation.cancel();
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        CapacityRateLimiter.Reservation reservation = takeReservation();
+        if (reservation != null) {
+            reservation.cancel();
+        }
+    }
+
+    private CapacityRateLimiter.Reservation takeReservation() {
+        CapacityRateLimiter.Reservation reservation = reservations.get();
+        reservations.remove();
+
+        return reservation;
+    }
+
+}
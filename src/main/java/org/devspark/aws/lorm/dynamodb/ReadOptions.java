@@ -0,0 +1,85 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per call settings of a read. By default reads are eventually consistent and
+ * fetch every attribute.
+ */
+public class ReadOptions {
+
+    private boolean consistentRead;
+    private List<String> attributeNames = Collections.emptyList();
+
+    public boolean isConsistentRead() {
+        return consistentRead;
+    }
+
+    /**
+     * Strongly consistent reads cost twice the read capacity, they are not
+     * supported by global secondary indexes.
+     */
+    public ReadOptions withConsistentRead(boolean consistentRead) {
+        this.consistentRead = consistentRead;
+        return this;
+    }
+
+    public List<String> getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * Attributes to fetch, the id is always fetched. Entities are partially
+     * materialized, the attributes not fetched are left unset.
+     */
+    public ReadOptions withAttributeNames(String... attributeNames) {
+        this.attributeNames = Collections
+                .unmodifiableList(new ArrayList<String>(Arrays.asList(attributeNames)));
+        return this;
+    }
+
+    public boolean isProjected() {
+        return !attributeNames.isEmpty();
+    }
+
+    /**
+     * True when the read is the same as one without options.
+     */
+    boolean isDefault() {
+        return !consistentRead && !isProjected();
+    }
+
+    /**
+     * Projection expression of the attributes plus the given id attribute,
+     * registering the placeholders of the names in the name map.
+     */
+    String buildProjectionExpression(String idAttributeName, Map<String, String> nameMap) {
+        List<String> names = new ArrayList<String>(attributeNames);
+        if (!names.contains(idAttributeName)) {
+            names.add(0, idAttributeName);
+        }
+
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            String placeholder = "#p" + i;
+            nameMap.put(placeholder, names.get(i));
+            if (expression.length() > 0) {
+                expression.append(", ");
+            }
+            expression.append(placeholder);
+        }
+
+        return expression.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadOptions [consistentRead=" + consistentRead + ", attributeNames="
+                + attributeNames + "]";
+    }
+
+}
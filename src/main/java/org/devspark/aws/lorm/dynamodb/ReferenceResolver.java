@@ -0,0 +1,229 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.ManyToOne;
+
+import org.devspark.aws.lorm.EntityManager;
+import org.devspark.aws.lorm.Repository;
+import org.devspark.aws.lorm.id.EntityIdHandler;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Resolves the ManyToOne references of a page of items with one batched lookup
+ * per target repository, so mapping N items does not issue N findOne calls.
+ */
+class ReferenceResolver {
+
+    private final EntityManager entityManager;
+    private final List<ReferenceAttribute> referenceAttributes;
+
+    ReferenceResolver(EntityManager entityManager, Class<?> entityClass) {
+        this.entityManager = entityManager;
+        this.referenceAttributes = entityManager != null
+                ? getReferenceAttributes(entityClass)
+                : Collections.<ReferenceAttribute> emptyList();
+    }
+
+    private static List<ReferenceAttribute> getReferenceAttributes(Class<?> entityClass) {
+        List<ReferenceAttribute> attributes = new ArrayList<ReferenceAttribute>();
+
+        Class<?> currentClass = entityClass;
+        while (currentClass != null && !Object.class.equals(currentClass)) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (field.getAnnotation(ManyToOne.class) == null) {
+                    continue;
+                }
+
+                String idFieldName = new EntityIdHandler(field.getType())
+                        .getIdFieldName();
+                attributes.add(new ReferenceAttribute(
+                        field.getName() + "." + idFieldName, field.getType()));
+            }
+
+            currentClass = currentClass.getSuperclass();
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Fetches every entity referenced by the given items and makes them
+     * available to the findOne calls of the target repositories, on the current
+     * thread, until the returned references are released.
+     */
+    PrefetchedReferences prefetch(List<Item> items) {
+        if (referenceAttributes.isEmpty() || items.isEmpty()) {
+            return new PrefetchedReferences();
+        }
+
+        Map<Class<?>, Set<String>> idsByTarget = new HashMap<Class<?>, Set<String>>();
+        for (ReferenceAttribute attribute : referenceAttributes) {
+            for (Item item : items) {
+                Object id = item.get(attribute.getAttributeName());
+                if (id != null) {
+                    addId(idsByTarget, attribute.getTargetClass(), id.toString());
+                }
+            }
+        }
+
+        return prefetch(idsByTarget);
+    }
+
+    /**
+     * Same as {@link #prefetch(List)} for items read with the low level client.
+     */
+    PrefetchedReferences prefetchAttributeValues(
+            List<Map<String, AttributeValue>> items) {
+        return prefetch(getReferencedIds(items));
+    }
+
+    /**
+     * Ids of the entities referenced by the items, by target class.
+     */
+    Map<Class<?>, Set<String>> getReferencedIds(List<Map<String, AttributeValue>> items) {
+        Map<Class<?>, Set<String>> idsByTarget = new HashMap<Class<?>, Set<String>>();
+        for (ReferenceAttribute attribute : referenceAttributes) {
+            for (Map<String, AttributeValue> item : items) {
+                String id = AttributeValueCodec
+                        .toStringValue(item.get(attribute.getAttributeName()));
+                if (id != null) {
+                    addId(idsByTarget, attribute.getTargetClass(), id);
+                }
+            }
+        }
+
+        return idsByTarget;
+    }
+
+    /**
+     * Repository of the referenced entities, null when it is not backed by
+     * DynamoDB.
+     */
+    DynamoDBBaseRepository<?> getTargetRepository(Class<?> targetClass) {
+        Repository<?> repository = entityManager.getRepository(targetClass);
+        return repository instanceof DynamoDBBaseRepository
+                ? (DynamoDBBaseRepository<?>) repository : null;
+    }
+
+    private static void addId(Map<Class<?>, Set<String>> idsByTarget,
+            Class<?> targetClass, String id) {
+        Set<String> ids = idsByTarget.get(targetClass);
+        if (ids == null) {
+            ids = new LinkedHashSet<String>();
+            idsByTarget.put(targetClass, ids);
+        }
+        ids.add(id);
+    }
+
+    private PrefetchedReferences prefetch(Map<Class<?>, Set<String>> idsByTarget) {
+        PrefetchedReferences prefetched = new PrefetchedReferences();
+        try {
+            for (Map.Entry<Class<?>, Set<String>> entry : idsByTarget.entrySet()) {
+                DynamoDBBaseRepository<?> repository = getTargetRepository(
+                        entry.getKey());
+                if (repository != null) {
+                    prefetched.add(prefetch(repository, entry.getValue()));
+                }
+            }
+        } catch (RuntimeException ex) {
+            prefetched.release();
+            throw ex;
+        }
+
+        return prefetched;
+    }
+
+    private static <R> PrefetchedRepository<R> prefetch(
+            DynamoDBBaseRepository<R> repository, Set<String> requestedIds) {
+        // entities already loaded in the session or prefetched are served by them
+        Set<String> ids = new LinkedHashSet<String>();
+        for (String id : requestedIds) {
+            if (!repository.isLoadedInSession(id) && !repository.isPrefetched(id)) {
+                ids.add(id);
+            }
+        }
+
+        Map<String, R> entities = new HashMap<String, R>();
+        if (!ids.isEmpty()) {
+            entities.putAll(repository.findAllAsMap(ids));
+        }
+
+        // remember missing references too, they should not be fetched again
+        for (String id : ids) {
+            if (!entities.containsKey(id)) {
+                entities.put(id, null);
+            }
+        }
+
+        return new PrefetchedRepository<R>(repository,
+                repository.bindPrefetched(entities));
+    }
+
+    private static class ReferenceAttribute {
+        private final String attributeName;
+        private final Class<?> targetClass;
+
+        ReferenceAttribute(String attributeName, Class<?> targetClass) {
+            this.attributeName = attributeName;
+            this.targetClass = targetClass;
+        }
+
+        String getAttributeName() {
+            return attributeName;
+        }
+
+        Class<?> getTargetClass() {
+            return targetClass;
+        }
+    }
+
+    private static class PrefetchedRepository<R> {
+        private final DynamoDBBaseRepository<R> repository;
+        private final Map<String, R> previous;
+
+        PrefetchedRepository(DynamoDBBaseRepository<R> repository,
+                Map<String, R> previous) {
+            this.repository = repository;
+            this.previous = previous;
+        }
+
+        void release() {
+            repository.restorePrefetched(previous);
+        }
+    }
+
+    static class PrefetchedReferences {
+        private final List<PrefetchedRepository<?>> repositories = new ArrayList<PrefetchedRepository<?>>();
+
+        private void add(PrefetchedRepository<?> repository) {
+            repositories.add(repository);
+        }
+
+        /**
+         * Makes entities fetched elsewhere available to the findOne calls of
+         * the repository, on the current thread, until released.
+         */
+        <R> void bind(DynamoDBBaseRepository<R> repository, Map<String, R> entities) {
+            add(new PrefetchedRepository<R>(repository,
+                    repository.bindPrefetched(entities)));
+        }
+
+        void release() {
+            // restore in reverse order, a repository could be bound twice
+            for (int i = repositories.size() - 1; i >= 0; i--) {
+                repositories.get(i).release();
+            }
+            repositories.clear();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.List;
+
+/**
+ * Receives the pages of a parallel scan. Pages of the same segment are handled
+ * in order, but pages of different segments are handled concurrently from the
+ * scan workers, so implementations must be thread safe.
+ */
+public interface ScanSegmentHandler<T> {
+
+    void handle(int segment, List<T> entities);
+
+}
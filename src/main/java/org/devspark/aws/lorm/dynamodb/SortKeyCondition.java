@@ -0,0 +1,105 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Condition on the range key of a table or index, used by the range key
+ * queries of {@link DynamoDBBaseRepository}. Values are Strings or numbers.
+ */
+public class SortKeyCondition {
+
+    private enum Operator {
+        EQ("="), LT("<"), LE("<="), GT(">"), GE(">="), BETWEEN(null), BEGINS_WITH(null);
+
+        private final String symbol;
+
+        private Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private final String attributeName;
+    private final Operator operator;
+    private final List<Object> values;
+
+    private SortKeyCondition(String attributeName, Operator operator, Object... values) {
+        this.attributeName = attributeName;
+        this.operator = operator;
+        this.values = Arrays.asList(values);
+    }
+
+    public static SortKeyCondition eq(String attributeName, Object value) {
+        return new SortKeyCondition(attributeName, Operator.EQ, value);
+    }
+
+    public static SortKeyCondition lt(String attributeName, Object value) {
+        return new SortKeyCondition(attributeName, Operator.LT, value);
+    }
+
+    public static SortKeyCondition le(String attributeName, Object value) {
+        return new SortKeyCondition(attributeName, Operator.LE, value);
+    }
+
+    public static SortKeyCondition gt(String attributeName, Object value) {
+        return new SortKeyCondition(attributeName, Operator.GT, value);
+    }
+
+    public static SortKeyCondition ge(String attributeName, Object value) {
+        return new SortKeyCondition(attributeName, Operator.GE, value);
+    }
+
+    /**
+     * Both bounds included.
+     */
+    public static SortKeyCondition between(String attributeName, Object from, Object to) {
+        return new SortKeyCondition(attributeName, Operator.BETWEEN, from, to);
+    }
+
+    public static SortKeyCondition beginsWith(String attributeName, String prefix) {
+        return new SortKeyCondition(attributeName, Operator.BEGINS_WITH, prefix);
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * Key condition expression of the range key, adding its name and values to
+     * the given maps.
+     */
+    String buildExpression(Map<String, String> nameMap,
+            Map<String, AttributeValue> valueMap) {
+        String attributeAlias = "#" + attributeName.replace('.', '_');
+        nameMap.put(attributeAlias, attributeName);
+
+        String[] valueAliases = new String[values.size()];
+        for (int i = 0; i < valueAliases.length; i++) {
+            valueAliases[i] = ":rangeValue" + i;
+            valueMap.put(valueAliases[i],
+                    AttributeValueCodec.toAttributeValue(values.get(i)));
+        }
+
+        switch (operator) {
+        case BETWEEN:
+            return attributeAlias + " BETWEEN " + valueAliases[0] + " AND "
+                    + valueAliases[1];
+        case BEGINS_WITH:
+            return "begins_with(" + attributeAlias + ", " + valueAliases[0] + ")";
+        default:
+            return attributeAlias + " " + operator.symbol + " " + valueAliases[0];
+        }
+    }
+
+    @Override
+    public String toString() {
+        Map<String, String> nameMap = new HashMap<String, String>();
+        Map<String, AttributeValue> valueMap = new HashMap<String, AttributeValue>();
+        return buildExpression(nameMap, valueMap) + " " + valueMap;
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Provisioned throughput of the table of the entity when it is created, 100
+ * read and write units when the annotation is missing.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TableCapacity {
+
+    long readUnits() default 100;
+
+    long writeUnits() default 100;
+
+}
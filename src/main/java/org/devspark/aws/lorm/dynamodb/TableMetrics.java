@@ -0,0 +1,106 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the statistics of a table from the metrics registry of the entity
+ * manager, empty unless it is a {@link DefaultMetricsRegistry}.
+ */
+class TableMetrics implements TableMetricsMXBean {
+
+    private final DynamoDBEntityManager entityManager;
+    private final String tableName;
+
+    TableMetrics(DynamoDBEntityManager entityManager, String tableName) {
+        this.entityManager = entityManager;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public String getTableName() {
+        return tableName;
+    }
+
+    @Override
+    public long getRequestCount() {
+        long count = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            count += statistics.getRequestCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            count += statistics.getErrorCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getThrottleCount() {
+        long count = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            count += statistics.getThrottleCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getRetryCount() {
+        long count = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            count += statistics.getRetryCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getItemCount() {
+        long count = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            count += statistics.getItemCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public double getConsumedReadCapacityUnits() {
+        return getConsumedCapacityUnits(true);
+    }
+
+    @Override
+    public double getConsumedWriteCapacityUnits() {
+        return getConsumedCapacityUnits(false);
+    }
+
+    private double getConsumedCapacityUnits(boolean read) {
+        double units = 0;
+        for (OperationStatistics statistics : getOperations()) {
+            if (statistics.isRead() == read) {
+                units += statistics.getConsumedCapacityUnits();
+            }
+        }
+
+        return units;
+    }
+
+    @Override
+    public List<OperationStatistics> getOperations() {
+        MetricsRegistry registry = entityManager.getMetricsRegistry();
+        if (!(registry instanceof DefaultMetricsRegistry)) {
+            return Collections.emptyList();
+        }
+
+        return ((DefaultMetricsRegistry) registry).getStatistics(tableName);
+    }
+
+}
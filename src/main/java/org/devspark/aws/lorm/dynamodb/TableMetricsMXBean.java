@@ -0,0 +1,31 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.List;
+
+/**
+ * JMX view of the metrics of one table and its indexes, registered by
+ * {@link DynamoDBEntityManager} as
+ * <code>org.devspark.aws.lorm.dynamodb:type=TableMetrics,manager=&lt;id&gt;,name=&lt;table&gt;</code>,
+ * where the manager key is the identity hash of the entity manager in hex.
+ */
+public interface TableMetricsMXBean {
+
+    String getTableName();
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getThrottleCount();
+
+    long getRetryCount();
+
+    long getItemCount();
+
+    double getConsumedReadCapacityUnits();
+
+    double getConsumedWriteCapacityUnits();
+
+    List<OperationStatistics> getOperations();
+
+}
@@ -0,0 +1,80 @@
+package org.devspark.aws.lorm.dynamodb;
+
+/**
+ * Capacity units refilled at a steady rate, holding up to one second of
+ * capacity. Tokens can go negative: callers reserve units and wait until the
+ * debt is paid back by the refill.
+ */
+class TokenBucket {
+
+    /**
+     * Source of the refill time, replaced by tests.
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final Clock clock;
+    private double unitsPerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double unitsPerSecond) {
+        this(unitsPerSecond, SYSTEM_CLOCK);
+    }
+
+    TokenBucket(double unitsPerSecond, Clock clock) {
+        this.clock = clock;
+        this.unitsPerSecond = unitsPerSecond;
+        this.tokens = unitsPerSecond;
+        this.lastRefillNanos = clock.nanoTime();
+    }
+
+    synchronized double getUnitsPerSecond() {
+        return unitsPerSecond;
+    }
+
+    synchronized void setUnitsPerSecond(double unitsPerSecond) {
+        refill();
+        this.unitsPerSecond = unitsPerSecond;
+        this.tokens = Math.min(tokens, unitsPerSecond);
+    }
+
+    /**
+     * Takes the units, returns the nanos to wait until they are available.
+     */
+    synchronized long reserve(double units) {
+        refill();
+        tokens -= units;
+
+        return tokens >= 0 ? 0 : (long) (-tokens / unitsPerSecond * 1e9);
+    }
+
+    /**
+     * Gives back units (positive) or takes more (negative) without waiting.
+     */
+    synchronized void adjust(double units) {
+        refill();
+        tokens = Math.min(tokens + units, unitsPerSecond);
+    }
+
+    synchronized double getAvailableUnits() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = clock.nanoTime();
+        tokens = Math.min(unitsPerSecond,
+                tokens + (now - lastRefillNanos) / 1e9 * unitsPerSecond);
+        lastRefillNanos = now;
+    }
+
+}
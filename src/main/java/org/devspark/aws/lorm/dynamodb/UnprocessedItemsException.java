@@ -0,0 +1,66 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Thrown when the items of a batch write are still unprocessed after the
+ * retries allowed by the {@link BatchRetryPolicy}.
+ */
+public class UnprocessedItemsException extends DataException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, List<WriteRequest>> unprocessedItems;
+    private final List<String> unprocessedIds;
+
+    public UnprocessedItemsException(String tableName, String idFieldName,
+            Map<String, List<WriteRequest>> unprocessedItems, int retries) {
+        this(tableName, unprocessedItems, retries,
+                getIds(idFieldName, unprocessedItems));
+    }
+
+    private UnprocessedItemsException(String tableName,
+            Map<String, List<WriteRequest>> unprocessedItems, int retries,
+            List<String> unprocessedIds) {
+        super("Could not write " + unprocessedIds.size() + " items to table "
+                + tableName + " after " + retries + " retries. Unprocessed items: "
+                + unprocessedIds);
+        this.unprocessedItems = unprocessedItems;
+        this.unprocessedIds = unprocessedIds;
+    }
+
+    private static List<String> getIds(String idFieldName,
+            Map<String, List<WriteRequest>> unprocessedItems) {
+        List<String> ids = new ArrayList<String>();
+        for (List<WriteRequest> writeRequests : unprocessedItems.values()) {
+            for (WriteRequest writeRequest : writeRequests) {
+                Map<String, AttributeValue> key = writeRequest.getPutRequest() != null
+                        ? writeRequest.getPutRequest().getItem()
+                        : writeRequest.getDeleteRequest().getKey();
+                AttributeValue id = key.get(idFieldName);
+                ids.add(id != null && id.getS() != null ? id.getS() : String.valueOf(key));
+            }
+        }
+
+        return ids;
+    }
+
+    public Map<String, List<WriteRequest>> getUnprocessedItems() {
+        return unprocessedItems;
+    }
+
+    /**
+     * Ids of the items never written (or deleted).
+     */
+    public List<String> getUnprocessedIds() {
+        return unprocessedIds;
+    }
+
+}
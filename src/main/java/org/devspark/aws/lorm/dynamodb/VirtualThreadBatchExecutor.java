@@ -0,0 +1,81 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+
+/**
+ * Batch executor starting a virtual thread per task, available on Java 21+.
+ * Concurrency is capped by a number of permits, tasks are run by the caller
+ * when no permit is available.
+ */
+public class VirtualThreadBatchExecutor implements BatchExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    public VirtualThreadBatchExecutor(int maxConcurrency) {
+        this.executor = newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    public static boolean isAvailable() {
+        return getFactoryMethod() != null;
+    }
+
+    private static Method getFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method factoryMethod = getFactoryMethod();
+        if (factoryMethod == null) {
+            throw new DataException("Virtual threads are not supported by Java "
+                    + System.getProperty("java.version"));
+        }
+
+        try {
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new DataException("Could not create virtual thread executor: " + ex);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (!permits.tryAcquire()) {
+            task.run();
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
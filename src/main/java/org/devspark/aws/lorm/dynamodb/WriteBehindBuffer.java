@@ -0,0 +1,309 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Buffers the saves of a repository and writes them with BatchWriteItem.
+ * Saves of the same item are coalesced (last write wins). The buffer is flushed
+ * when it reaches the flush size, when the flush interval elapses, on
+ * {@link #flush()} and on {@link #close()}. Saves block while the buffer is
+ * full.
+ */
+public class WriteBehindBuffer<T> implements Closeable {
+    private final static Log LOG = LogFactory.getLog(WriteBehindBuffer.class);
+
+    private final DynamoDBBaseRepository<T> repository;
+    private final WriteBehindOptions options;
+    private final WriteBehindJournal journal;
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Object flushMonitor = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private Map<String, Map<String, AttributeValue>> pending = new LinkedHashMap<String, Map<String, AttributeValue>>();
+    private int inFlight;
+    private boolean closed;
+
+    public WriteBehindBuffer(DynamoDBBaseRepository<T> repository,
+            WriteBehindOptions options) {
+        this.repository = repository;
+        this.options = options;
+
+        if (options.getJournalFile() != null) {
+            journal = new WriteBehindJournal(options.getJournalFile(),
+                    options.isSyncJournal());
+            for (Map<String, AttributeValue> record : journal.recover()) {
+                pending.put(repository.getItemKey(record), record);
+            }
+        } else {
+            journal = null;
+        }
+
+        final String threadName = "lorm-dynamodb-write-behind-"
+                + repository.getTable().getTableName();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, options.getFlushIntervalMillis(), options.getFlushIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+
+        if (!pending.isEmpty()) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Buffers the instance, generating its id when missing. Blocks while the
+     * buffer is full.
+     */
+    public T save(T instance) {
+        Map<String, AttributeValue> item = repository.encode(instance);
+        String id = repository.getItemKey(item);
+
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Unexpected interruption while buffering item");
+        }
+
+        try {
+            while (!closed && !pending.containsKey(id)
+                    && pending.size() + inFlight >= options.getMaxBufferedItems()) {
+                requestFlush();
+                notFull.await();
+            }
+
+            if (closed) {
+                throw new DataException("Write behind buffer of table "
+                        + repository.getTable().getTableName() + " is closed");
+            }
+
+            if (journal != null) {
+                journal.append(item);
+            }
+            pending.put(id, item);
+
+            // the whole item is written by the flush, the next save of the
+            // instance puts it too
+            repository.untrack(instance);
+
+            if (pending.size() >= options.getFlushSize()) {
+                requestFlush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Unexpected interruption while buffering item");
+        } finally {
+            lock.unlock();
+        }
+
+        return instance;
+    }
+
+    public int getBufferedCount() {
+        lock.lock();
+        try {
+            return pending.size() + inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushRequested.set(false);
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            LOG.error("Error while flushing write behind buffer of table "
+                    + repository.getTable().getTableName(), ex);
+        }
+    }
+
+    /**
+     * Writes all the buffered items. Items that could not be written are kept
+     * in the buffer (unless saved again meanwhile) and an exception is thrown.
+     */
+    public void flush() {
+        synchronized (flushMonitor) {
+            Map<String, Map<String, AttributeValue>> items;
+
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+
+                // rotate first, a failure leaves the buffer as it was
+                if (journal != null) {
+                    journal.rotate();
+                }
+                items = pending;
+                pending = new LinkedHashMap<String, Map<String, AttributeValue>>();
+                inFlight += items.size();
+            } finally {
+                lock.unlock();
+            }
+
+            Map<String, Map<String, AttributeValue>> failedItems = write(items);
+
+            for (String id : items.keySet()) {
+                repository.evictCached(id);
+            }
+
+            lock.lock();
+            try {
+                inFlight -= items.size();
+                for (Map.Entry<String, Map<String, AttributeValue>> failedItem : failedItems
+                        .entrySet()) {
+                    if (!pending.containsKey(failedItem.getKey())) {
+                        pending.put(failedItem.getKey(), failedItem.getValue());
+                        if (journal != null) {
+                            journal.append(failedItem.getValue());
+                        }
+                    }
+                }
+
+                if (journal != null) {
+                    journal.flushed();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            if (!failedItems.isEmpty()) {
+                throw new DataException("Could not flush " + failedItems.size()
+                        + " items of table " + repository.getTable().getTableName()
+                        + ": " + failedItems.keySet());
+            }
+        }
+    }
+
+    private Map<String, Map<String, AttributeValue>> write(
+            Map<String, Map<String, AttributeValue>> items) {
+        List<Map<String, Map<String, AttributeValue>>> chunks = new ArrayList<Map<String, Map<String, AttributeValue>>>();
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        Map<String, Map<String, AttributeValue>> chunk = new LinkedHashMap<String, Map<String, AttributeValue>>();
+        for (Map.Entry<String, Map<String, AttributeValue>> item : items.entrySet()) {
+            chunk.put(item.getKey(), item.getValue());
+            if (chunk.size() == DynamoDBBaseRepository.BATCH_WRITE_ITEMS_LIMIT) {
+                chunks.add(chunk);
+                chunk = new LinkedHashMap<String, Map<String, AttributeValue>>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        for (Map<String, Map<String, AttributeValue>> chunkItems : chunks) {
+            List<WriteRequest> writeRequests = new ArrayList<WriteRequest>(
+                    chunkItems.size());
+            for (Map<String, AttributeValue> item : chunkItems.values()) {
+                writeRequests.add(new WriteRequest(new PutRequest(item)));
+            }
+            results.add(repository.submitBatchWrite(writeRequests));
+        }
+
+        Map<String, Map<String, AttributeValue>> failedItems = new LinkedHashMap<String, Map<String, AttributeValue>>();
+        boolean interrupted = false;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (interrupted) {
+                    results.get(i).cancel(true);
+                    failedItems.putAll(chunks.get(i));
+                } else {
+                    results.get(i).get();
+                }
+            } catch (ExecutionException e) {
+                LOG.warn("Could not write " + chunks.get(i).size() + " items of table "
+                        + repository.getTable().getTableName(), e.getCause());
+                failedItems.putAll(chunks.get(i));
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failedItems.putAll(chunks.get(i));
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return failedItems;
+    }
+
+    /**
+     * Stops the periodic flushes and writes the buffered items.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(options.getFlushIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            flush();
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.devspark.aws.lorm.exceptions.DataException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Append only journal of a {@link WriteBehindBuffer}. Each record is a length
+ * prefixed serialized item. When a flush starts the journal is rotated to a
+ * ".flushing" file, which is deleted once the flushed items are written.
+ */
+class WriteBehindJournal implements Closeable {
+    private final static Log LOG = LogFactory.getLog(WriteBehindJournal.class);
+
+    private final File file;
+    private final File flushingFile;
+    private final boolean sync;
+    private FileOutputStream output;
+    private DataOutputStream dataOutput;
+
+    WriteBehindJournal(File file, boolean sync) {
+        this.file = file;
+        this.flushingFile = new File(file.getPath() + ".flushing");
+        this.sync = sync;
+    }
+
+    /**
+     * Reads the records left by a previous run, oldest first, and starts a new
+     * journal holding just them.
+     */
+    List<Map<String, AttributeValue>> recover() {
+        List<Map<String, AttributeValue>> records = new ArrayList<Map<String, AttributeValue>>();
+        records.addAll(read(flushingFile));
+        records.addAll(read(file));
+
+        File recoveredFile = new File(file.getPath() + ".recovered");
+        open(recoveredFile, false);
+        for (Map<String, AttributeValue> record : records) {
+            append(record);
+        }
+        closeOutput();
+
+        if (!recoveredFile.renameTo(file)) {
+            throw new DataException("Could not replace write behind journal " + file);
+        }
+        flushingFile.delete();
+
+        open(file, true);
+
+        return records;
+    }
+
+    private List<Map<String, AttributeValue>> read(File journalFile) {
+        List<Map<String, AttributeValue>> records = new ArrayList<Map<String, AttributeValue>>();
+        if (!journalFile.exists()) {
+            return records;
+        }
+
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[input.readInt()];
+                    input.readFully(record);
+                } catch (EOFException ex) {
+                    // end of journal, or a record partially written on a crash
+                    break;
+                }
+
+                records.add(deserialize(record));
+            }
+        } catch (IOException ex) {
+            throw new DataException(
+                    "Could not read write behind journal " + journalFile + ": " + ex);
+        }
+
+        LOG.info("Recovered " + records.size() + " items from write behind journal "
+                + journalFile);
+
+        return records;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, AttributeValue> deserialize(byte[] record) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(
+                new ByteArrayInputStream(record))) {
+            return (Map<String, AttributeValue>) input.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Invalid journal record", ex);
+        }
+    }
+
+    void append(Map<String, AttributeValue> item) {
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            try (ObjectOutputStream recordOutput = new ObjectOutputStream(record)) {
+                recordOutput.writeObject(new HashMap<String, AttributeValue>(item));
+            }
+
+            dataOutput.writeInt(record.size());
+            record.writeTo(dataOutput);
+            dataOutput.flush();
+            if (sync) {
+                output.getFD().sync();
+            }
+        } catch (IOException ex) {
+            throw new DataException(
+                    "Could not append to write behind journal " + file + ": " + ex);
+        }
+    }
+
+    /**
+     * Moves the current records to the flushing file, new records go to an
+     * empty journal.
+     */
+    void rotate() {
+        closeOutput();
+        if (!file.renameTo(flushingFile)) {
+            // keep appending to the current journal
+            open(file, true);
+            throw new DataException("Could not rotate write behind journal " + file);
+        }
+        open(file, true);
+    }
+
+    /**
+     * Drops the records of the flushing file, they are already written.
+     */
+    void flushed() {
+        flushingFile.delete();
+    }
+
+    private void open(File journalFile, boolean append) {
+        try {
+            output = new FileOutputStream(journalFile, append);
+            dataOutput = new DataOutputStream(output);
+        } catch (IOException ex) {
+            throw new DataException(
+                    "Could not open write behind journal " + journalFile + ": " + ex);
+        }
+    }
+
+    private void closeOutput() {
+        if (dataOutput == null) {
+            return;
+        }
+
+        try {
+            dataOutput.close();
+        } catch (IOException ex) {
+            LOG.warn("Could not close write behind journal " + file, ex);
+        }
+        dataOutput = null;
+        output = null;
+    }
+
+    @Override
+    public void close() {
+        closeOutput();
+    }
+
+}
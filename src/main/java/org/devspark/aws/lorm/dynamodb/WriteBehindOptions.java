@@ -0,0 +1,83 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.File;
+
+/**
+ * Settings of a {@link WriteBehindBuffer}.
+ */
+public class WriteBehindOptions {
+
+    public final static int DEFAULT_MAX_BUFFERED_ITEMS = 1000;
+    public final static int DEFAULT_FLUSH_SIZE = 100;
+    public final static long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private int maxBufferedItems = DEFAULT_MAX_BUFFERED_ITEMS;
+    private int flushSize = DEFAULT_FLUSH_SIZE;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private File journalFile;
+    private boolean syncJournal;
+
+    public int getMaxBufferedItems() {
+        return maxBufferedItems;
+    }
+
+    /**
+     * Buffered plus in flight items, saves block when the limit is reached.
+     */
+    public WriteBehindOptions withMaxBufferedItems(int maxBufferedItems) {
+        this.maxBufferedItems = maxBufferedItems;
+        return this;
+    }
+
+    public int getFlushSize() {
+        return flushSize;
+    }
+
+    /**
+     * Number of buffered items that triggers a flush.
+     */
+    public WriteBehindOptions withFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+        return this;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * Max time an item stays in the buffer.
+     */
+    public WriteBehindOptions withFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Append only file where buffered items are written before being
+     * acknowledged, they are replayed when the buffer is created again after a
+     * crash. No journal is kept by default.
+     */
+    public WriteBehindOptions withJournalFile(File journalFile) {
+        this.journalFile = journalFile;
+        return this;
+    }
+
+    public boolean isSyncJournal() {
+        return syncJournal;
+    }
+
+    /**
+     * Forces every journal record to the storage device, so it also survives an
+     * OS crash. Disabled by default.
+     */
+    public WriteBehindOptions withSyncJournal(boolean syncJournal) {
+        this.syncJournal = syncJournal;
+        return this;
+    }
+
+}
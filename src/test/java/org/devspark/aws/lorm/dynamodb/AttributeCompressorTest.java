@@ -0,0 +1,69 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import org.devspark.aws.lorm.exceptions.DataValidationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AttributeCompressorTest {
+
+    @Test
+    public void testRoundTrip() {
+        AttributeCompressor compressor = new AttributeCompressor(TextEntity.class);
+        String value = repeat("some long description ", 100);
+
+        for (String attributeName : new String[] { "deflated", "gzipped" }) {
+            Object compressed = compressor.compress(attributeName, value);
+            Assert.assertTrue(compressed instanceof byte[]);
+            Assert.assertTrue(((byte[]) compressed).length < value.length());
+
+            Assert.assertEquals(value, compressor.decompress(attributeName, compressed));
+        }
+    }
+
+    @Test
+    public void testBelowThreshold() {
+        AttributeCompressor compressor = new AttributeCompressor(TextEntity.class);
+
+        Assert.assertEquals("short", compressor.compress("deflated", "short"));
+        Assert.assertEquals("short", compressor.decompress("deflated", "short"));
+    }
+
+    @Test
+    public void testUncompressedAttribute() {
+        AttributeCompressor compressor = new AttributeCompressor(TextEntity.class);
+        String value = repeat("some long name ", 100);
+
+        Assert.assertFalse(compressor.isCompressed("name"));
+        Assert.assertEquals(value, compressor.compress("name", value));
+    }
+
+    @Test(expected = DataValidationException.class)
+    public void testBinaryFieldRejected() {
+        new AttributeCompressor(BinaryEntity.class);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+
+    static class TextEntity {
+        private String name;
+
+        @Compressed(threshold = 64)
+        private String deflated;
+
+        @Compressed(threshold = 64, algorithm = Compressed.Algorithm.GZIP)
+        private String gzipped;
+    }
+
+    static class BinaryEntity {
+        @Compressed
+        private byte[] content;
+    }
+
+}
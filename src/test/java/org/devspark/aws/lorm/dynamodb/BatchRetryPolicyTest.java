@@ -0,0 +1,94 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+public class BatchRetryPolicyTest {
+
+    @Test
+    public void testFirstDelayIsBaseDelay() {
+        BatchRetryPolicy policy = new BatchRetryPolicy(50, 5000, 10, 30000);
+
+        Assert.assertEquals(50, policy.getNextDelay(0));
+    }
+
+    @Test
+    public void testNextDelayBounds() {
+        BatchRetryPolicy policy = new BatchRetryPolicy(50, 5000, 10, 30000);
+
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getNextDelay(200);
+            Assert.assertTrue("delay " + delay, delay >= 50 && delay <= 600);
+        }
+    }
+
+    @Test
+    public void testNextDelayIsCapped() {
+        BatchRetryPolicy policy = new BatchRetryPolicy(50, 500, 10, 30000);
+
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getNextDelay(400);
+            Assert.assertTrue("delay " + delay, delay >= 50 && delay <= 500);
+        }
+        Assert.assertEquals(500, new BatchRetryPolicy(500, 500, 10, 30000)
+                .getNextDelay(10000));
+    }
+
+    @Test
+    public void testCanRetryUntilMaxAttempts() {
+        BatchRetryPolicy policy = new BatchRetryPolicy(50, 5000, 3, 30000);
+
+        Assert.assertTrue(policy.canRetry(1, 0, 50));
+        Assert.assertTrue(policy.canRetry(3, 0, 50));
+        Assert.assertFalse(policy.canRetry(4, 0, 50));
+    }
+
+    @Test
+    public void testCanRetryWithinElapsedBudget() {
+        BatchRetryPolicy policy = new BatchRetryPolicy(50, 5000, 10, 1000);
+
+        Assert.assertTrue(policy.canRetry(1, 900, 100));
+        Assert.assertFalse(policy.canRetry(1, 901, 100));
+        Assert.assertFalse(policy.canRetry(1, 1200, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBaseDelay() {
+        new BatchRetryPolicy(0, 5000, 10, 30000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxDelayBelowBaseDelay() {
+        new BatchRetryPolicy(100, 50, 10, 30000);
+    }
+
+    @Test
+    public void testUnprocessedIds() {
+        Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("id", new AttributeValue().withS("put-id"));
+        List<WriteRequest> writeRequests = new ArrayList<WriteRequest>();
+        writeRequests.add(new WriteRequest(new PutRequest(item)));
+        writeRequests.add(new WriteRequest(new DeleteRequest(Collections
+                .singletonMap("id", new AttributeValue().withS("delete-id")))));
+
+        UnprocessedItemsException exception = new UnprocessedItemsException("expense",
+                "id", Collections.singletonMap("expense", writeRequests), 10);
+
+        Assert.assertEquals(2, exception.getUnprocessedIds().size());
+        Assert.assertTrue(exception.getUnprocessedIds().contains("put-id"));
+        Assert.assertTrue(exception.getUnprocessedIds().contains("delete-id"));
+        Assert.assertTrue(exception.getMessage().contains("after 10 retries"));
+    }
+
+}
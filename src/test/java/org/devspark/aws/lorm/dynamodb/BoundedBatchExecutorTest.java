@@ -0,0 +1,55 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedBatchExecutorTest {
+
+    @Test
+    public void testCallerRunsWhenSaturated() throws InterruptedException {
+        BoundedBatchExecutor executor = new BoundedBatchExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runner.set(Thread.currentThread());
+                }
+            });
+            Assert.assertSame(Thread.currentThread(), runner.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterShutdown() {
+        BoundedBatchExecutor executor = new BoundedBatchExecutor(1, 1);
+        executor.shutdown();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+}
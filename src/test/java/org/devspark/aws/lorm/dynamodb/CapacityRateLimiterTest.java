@@ -0,0 +1,139 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+
+public class CapacityRateLimiterTest {
+
+    private final static double DELTA_NANOS = 1000;
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void testWritesWaitForCapacity() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 10, 5);
+
+        // the first 5 writes use the burst
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.reserve(put("merchant")).getWaitNanos());
+        }
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(200),
+                limiter.reserve(put("merchant")).getWaitNanos(), DELTA_NANOS);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(400),
+                limiter.reserve(put("merchant")).getWaitNanos(), DELTA_NANOS);
+
+        // the debt is paid back by the refill
+        clock.advance(1000);
+        Assert.assertEquals(3, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+        Assert.assertEquals(0, limiter.reserve(put("merchant")).getWaitNanos());
+
+        // reads use their own bucket
+        Assert.assertEquals(10, limiter.getAvailableReadUnits("merchant", null), 1e-9);
+    }
+
+    @Test
+    public void testScanFraction() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 10, 5).withScanFraction(0.5);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.reserve(scan("merchant")).getWaitNanos());
+        }
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(200),
+                limiter.reserve(scan("merchant")).getWaitNanos(), DELTA_NANOS);
+
+        // online reads still have capacity left
+        Assert.assertEquals(0, limiter.reserve(get("merchant")).getWaitNanos());
+    }
+
+    @Test
+    public void testWritesReserveGlobalIndexes() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 100, 100)
+                .withIndexCapacity("merchant", "name-index", 10, 1);
+
+        Assert.assertEquals(0, limiter.reserve(put("merchant")).getWaitNanos());
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(1),
+                limiter.reserve(put("merchant")).getWaitNanos(), DELTA_NANOS);
+        Assert.assertEquals(-1, limiter.getAvailableWriteUnits("merchant", "name-index"),
+                1e-9);
+        Assert.assertEquals(98, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+    }
+
+    @Test
+    public void testReleaseReplacesReservation() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 10, 5)
+                .withIndexCapacity("merchant", "name-index", 10, 5);
+
+        CapacityRateLimiter.Reservation reservation = limiter.reserve(put("merchant"));
+        Assert.assertEquals(4, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+        Assert.assertEquals(4, limiter.getAvailableWriteUnits("merchant", "name-index"),
+                1e-9);
+
+        reservation.release(new PutItemResult().withConsumedCapacity(
+                new ConsumedCapacity().withTableName("merchant").withCapacityUnits(5.0)
+                        .withTable(new Capacity().withCapacityUnits(3.0))
+                        .withGlobalSecondaryIndexes(Collections.singletonMap(
+                                "name-index", new Capacity().withCapacityUnits(2.0)))));
+        Assert.assertEquals(2, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+        Assert.assertEquals(3, limiter.getAvailableWriteUnits("merchant", "name-index"),
+                1e-9);
+    }
+
+    @Test
+    public void testCancel() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 10, 5);
+
+        limiter.reserve(put("merchant")).cancel();
+        Assert.assertEquals(5, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+    }
+
+    @Test
+    public void testUnlimitedTable() {
+        CapacityRateLimiter limiter = new CapacityRateLimiter(clock)
+                .withTableCapacity("merchant", 10, 5);
+
+        Assert.assertEquals(0, limiter.reserve(put("expense")).getWaitNanos());
+        Assert.assertTrue(Double.isNaN(limiter.getAvailableWriteUnits("expense", null)));
+        Assert.assertEquals(5, limiter.getAvailableWriteUnits("merchant", null), 1e-9);
+    }
+
+    private static PutItemRequest put(String tableName) {
+        return new PutItemRequest().withTableName(tableName);
+    }
+
+    private static GetItemRequest get(String tableName) {
+        return new GetItemRequest().withTableName(tableName);
+    }
+
+    private static ScanRequest scan(String tableName) {
+        return new ScanRequest(tableName);
+    }
+
+    private static class ManualClock implements TokenBucket.Clock {
+        private long nanos;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+}
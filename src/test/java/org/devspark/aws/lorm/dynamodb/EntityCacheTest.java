@@ -0,0 +1,105 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+public class EntityCacheTest {
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        EntityCache cache = new EntityCache(2, 60000, 60000, clock);
+        cache.put("1", item("1"), cache.getGeneration());
+        cache.put("2", item("2"), cache.getGeneration());
+
+        // 1 is used again, 2 is the least recently used
+        Assert.assertNotNull(cache.get("1"));
+        cache.put("3", item("3"), cache.getGeneration());
+
+        Assert.assertNotNull(cache.get("1"));
+        Assert.assertNull(cache.get("2"));
+        Assert.assertNotNull(cache.get("3"));
+
+        EntityCacheStatistics statistics = cache.getStatistics();
+        Assert.assertEquals(1, statistics.getEvictions());
+        Assert.assertEquals(3, statistics.getHits());
+        Assert.assertEquals(1, statistics.getMisses());
+    }
+
+    @Test
+    public void testExpiration() {
+        EntityCache cache = new EntityCache(10, 1000, 0, clock);
+        cache.put("1", item("1"), cache.getGeneration());
+
+        clock.advance(1000);
+        Assert.assertEquals("1", cache.get("1").getString("id"));
+
+        clock.advance(1);
+        Assert.assertNull(cache.get("1"));
+        Assert.assertEquals(1, cache.getStatistics().getExpirations());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        EntityCache cache = new EntityCache(10, 60000, 100, clock);
+        cache.put("missing", null, cache.getGeneration());
+
+        Assert.assertTrue(EntityCache.isMissing(cache.get("missing")));
+        Assert.assertEquals(1, cache.getStatistics().getNegativeHits());
+
+        // missing ids expire with their own TTL
+        clock.advance(101);
+        Assert.assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void testNegativeCachingDisabled() {
+        EntityCache cache = new EntityCache(10, 60000, 0, clock);
+        cache.put("missing", null, cache.getGeneration());
+
+        Assert.assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void testPutAfterInvalidation() {
+        EntityCache cache = new EntityCache(10, 60000, 60000, clock);
+
+        // a save invalidates the id while the item read before it is in flight
+        long generation = cache.getGeneration();
+        cache.invalidate("1");
+        cache.put("1", item("1"), generation);
+        Assert.assertNull(cache.get("1"));
+
+        cache.put("1", item("1"), cache.getGeneration());
+        Assert.assertNotNull(cache.get("1"));
+
+        generation = cache.getGeneration();
+        cache.invalidateAll();
+        cache.put("2", item("2"), generation);
+        Assert.assertNull(cache.get("1"));
+        Assert.assertNull(cache.get("2"));
+    }
+
+    private static Item item(String id) {
+        return new Item().withString("id", id);
+    }
+
+    private static class ManualClock implements TokenBucket.Clock {
+        private long nanos;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.devspark.aws.lorm.dynamodb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.devspark.aws.lorm.exceptions.DataException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class WriteBehindJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverWithoutJournal() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        Assert.assertTrue(journal.recover().isEmpty());
+        journal.close();
+
+        Assert.assertTrue(file.exists());
+    }
+
+    @Test
+    public void testRecoverAfterCrashBeforeFlush() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        // the process dies before flushing, the journal is not closed
+        WriteBehindJournal journal = new WriteBehindJournal(file, true);
+        journal.recover();
+        journal.append(item("1"));
+        journal.append(item("2"));
+
+        Assert.assertEquals(ids("1", "2"), recover(file));
+    }
+
+    @Test
+    public void testRecoverAfterCrashDuringFlush() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        File flushingFile = new File(folder.getRoot(), "journal.flushing");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("1"));
+        journal.append(item("2"));
+
+        // the process dies while writing the rotated records
+        journal.rotate();
+        journal.append(item("3"));
+        Assert.assertTrue(flushingFile.exists());
+
+        Assert.assertEquals(ids("1", "2", "3"), recover(file));
+        Assert.assertFalse(flushingFile.exists());
+    }
+
+    @Test
+    public void testRecoverAfterFlush() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("1"));
+        journal.rotate();
+        journal.append(item("2"));
+        journal.flushed();
+        journal.append(item("3"));
+
+        // the flushed records are not replayed
+        Assert.assertEquals(ids("2", "3"), recover(file));
+    }
+
+    @Test
+    public void testRecoverTwice() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("1"));
+        journal.rotate();
+        journal.append(item("2"));
+        journal.close();
+
+        // a crash right after a recovery replays the same records again
+        Assert.assertEquals(ids("1", "2"), recover(file));
+        Assert.assertEquals(ids("1", "2"), recover(file));
+    }
+
+    @Test
+    public void testRecoverPartialRecord() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("1"));
+        journal.close();
+
+        // a record cut by the crash: its length and part of its bytes
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+        }
+
+        Assert.assertEquals(ids("1"), recover(file));
+
+        // the partial record is dropped by the recovery, new records follow
+        journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("2"));
+        journal.close();
+        Assert.assertEquals(ids("1", "2"), recover(file));
+    }
+
+    @Test
+    public void testFailedRotation() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        journal.recover();
+        journal.append(item("1"));
+
+        // a non empty directory can not be replaced by the journal
+        File flushingFile = new File(folder.getRoot(), "journal.flushing");
+        Assert.assertTrue(new File(flushingFile, "blocker").mkdirs());
+        try {
+            journal.rotate();
+            Assert.fail("rotate should fail");
+        } catch (DataException ex) {
+            // expected
+        }
+
+        // the records stay in the journal, which is still writable
+        journal.append(item("2"));
+        journal.close();
+        Assert.assertTrue(new File(flushingFile, "blocker").delete());
+        Assert.assertTrue(flushingFile.delete());
+
+        Assert.assertEquals(ids("1", "2"), recover(file));
+    }
+
+    private static List<String> recover(File file) {
+        WriteBehindJournal journal = new WriteBehindJournal(file, false);
+        try {
+            List<String> ids = new ArrayList<String>();
+            for (Map<String, AttributeValue> record : journal.recover()) {
+                ids.add(record.get("id").getS());
+            }
+
+            return ids;
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static Map<String, AttributeValue> item(String id) {
+        return Collections.singletonMap("id", new AttributeValue().withS(id));
+    }
+
+    private static List<String> ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+}
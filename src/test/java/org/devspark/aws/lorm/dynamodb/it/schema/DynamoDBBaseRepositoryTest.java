@@ -1,14 +1,44 @@
 package org.devspark.aws.lorm.dynamodb.it.schema;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 import org.devspark.aws.lorm.Repository;
+import org.devspark.aws.lorm.dynamodb.DefaultMetricsRegistry;
+import org.devspark.aws.lorm.dynamodb.DynamoDBAsyncRepository;
+import org.devspark.aws.lorm.dynamodb.DynamoDBBaseRepository;
+import org.devspark.aws.lorm.dynamodb.DynamoDBEntityManager;
+import org.devspark.aws.lorm.dynamodb.EntityCache;
+import org.devspark.aws.lorm.dynamodb.EntityCacheStatistics;
+import org.devspark.aws.lorm.dynamodb.EntityPage;
+import org.devspark.aws.lorm.dynamodb.EntitySession;
+import org.devspark.aws.lorm.dynamodb.OperationStatistics;
+import org.devspark.aws.lorm.dynamodb.QueryPlan;
+import org.devspark.aws.lorm.dynamodb.ReadOptions;
+import org.devspark.aws.lorm.dynamodb.SortKeyCondition;
+import org.devspark.aws.lorm.dynamodb.WriteBehindBuffer;
+import org.devspark.aws.lorm.dynamodb.WriteBehindOptions;
+import org.devspark.aws.lorm.exceptions.DataException;
+import org.devspark.aws.lorm.exceptions.DataValidationException;
 import org.devspark.aws.lorm.test.model.Expense;
 import org.devspark.aws.lorm.test.model.ExpenseType;
 import org.devspark.aws.lorm.test.model.Merchant;
+import org.devspark.aws.lorm.test.model.MerchantActivity;
+import org.devspark.aws.lorm.test.model.Payment;
+import org.devspark.aws.lorm.test.model.Refund;
 import org.devspark.aws.lorm.test.model.embedded.DeepEmbedded;
 import org.devspark.aws.lorm.test.model.embedded.SampleEmbeddable;
 import org.devspark.aws.lorm.test.model.embedded.SampleEntity;
@@ -84,6 +114,32 @@ public class DynamoDBBaseRepositoryTest extends BaseIntegrationTest {
                 savedSampleEntity.getEmbedded().getDeepEmbedded().getEmbeddedField());
     }
 
+    @Test
+    public void testCompressed() {
+        StringBuilder randomField = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            randomField.append("some long random field ");
+        }
+
+        SampleEntity sampleEntity = new SampleEntity();
+        sampleEntity.setId("compressed");
+        sampleEntity.setSomeRandomField(randomField.toString());
+        sampleEntity.setEmbedded(buildSampleEmbeddable());
+
+        DynamoDBBaseRepository<SampleEntity> repository = (DynamoDBBaseRepository<SampleEntity>) entityManager
+                .getRepository(SampleEntity.class);
+        repository.save(sampleEntity);
+
+        SampleEntity savedSampleEntity = repository.findOne("compressed");
+        Assert.assertNotNull(savedSampleEntity);
+        Assert.assertEquals(randomField.toString(), savedSampleEntity.getSomeRandomField());
+
+        // batch gets read items of the Document API
+        Assert.assertEquals(randomField.toString(),
+                repository.findAll(Collections.singletonList("compressed")).get(0)
+                        .getSomeRandomField());
+    }
+
     private SampleEmbeddable buildSampleEmbeddable() {
         DeepEmbedded deepEmbedded = new DeepEmbedded();
         deepEmbedded.setEmbeddedField("some deep embedded field");
@@ -207,6 +263,564 @@ public class DynamoDBBaseRepositoryTest extends BaseIntegrationTest {
 
     }
 
+    @Test
+    public void testNullAttributes() {
+        Repository<Merchant> repository = entityManager.getRepository(Merchant.class);
+
+        // null attributes are not written, name is an index key
+        Merchant merchant = buildMerchant(null);
+        repository.save(merchant);
+
+        Merchant foundMerchant = repository.findOne(merchant.getId());
+        Assert.assertNotNull(foundMerchant);
+        Assert.assertNull(foundMerchant.getName());
+        Assert.assertTrue(repository.query("name", "new merchant").isEmpty());
+    }
+
+    @Test
+    public void testPagination() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+        for (int i = 0; i < 25; i++) {
+            repository.save(buildMerchant("paged merchant"));
+        }
+
+        Set<String> queriedIds = new HashSet<String>();
+        String pageToken = null;
+        do {
+            EntityPage<Merchant> page = repository.query("name", "paged merchant", true,
+                    pageToken, 10);
+            Assert.assertTrue(page.getContent().size() <= 10);
+            for (Merchant merchant : page.getContent()) {
+                queriedIds.add(merchant.getId());
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        Assert.assertEquals(25, queriedIds.size());
+
+        Set<String> scannedIds = new HashSet<String>();
+        EntityPage<Merchant> page = repository.findAll(null, 10);
+        scannedIds.addAll(getIds(page.getContent()));
+        while (page.hasNextPage()) {
+            page = repository.findAll(page.getNextPageToken(), 10);
+            scannedIds.addAll(getIds(page.getContent()));
+        }
+        Assert.assertEquals(queriedIds, scannedIds);
+    }
+
+    private List<String> getIds(List<Merchant> merchants) {
+        List<String> ids = new ArrayList<String>();
+        for (Merchant merchant : merchants) {
+            ids.add(merchant.getId());
+        }
+
+        return ids;
+    }
+
+    @Test
+    public void testCompositeKey() {
+        addToEntityManager(MerchantActivity.class);
+        setupSchemaForEntity(MerchantActivity.class);
+
+        DynamoDBBaseRepository<MerchantActivity> repository = (DynamoDBBaseRepository<MerchantActivity>) entityManager
+                .getRepository(MerchantActivity.class);
+
+        String merchantId = UUID.randomUUID().toString();
+        String[] dates = { "2015-02-27", "2015-03-01", "2015-03-15", "2015-03-31",
+                "2015-04-01" };
+        for (int i = 0; i < dates.length; i++) {
+            MerchantActivity activity = new MerchantActivity();
+            activity.setMerchantId(merchantId);
+            activity.setDate(dates[i]);
+            activity.setType(merchantId + (i % 2 == 0 ? "-sale" : "-refund"));
+            activity.setAmount(new BigDecimal(i * 10));
+            repository.save(activity);
+        }
+
+        MerchantActivity activity = repository.findOne(merchantId, "2015-03-15");
+        Assert.assertNotNull(activity);
+        Assert.assertEquals(new BigDecimal(20), activity.getAmount());
+
+        // table range key
+        List<MerchantActivity> march = repository.query("merchantId", merchantId,
+                SortKeyCondition.between("date", "2015-03-01", "2015-03-31"), true, 100);
+        Assert.assertEquals(3, march.size());
+        Assert.assertEquals("2015-03-01", march.get(0).getDate());
+        Assert.assertEquals("2015-03-31", march.get(2).getDate());
+
+        // local index with a number range key, consistent reads allowed
+        List<MerchantActivity> large = repository.query("merchantId", merchantId,
+                SortKeyCondition.ge("amount", 30), false, 100,
+                new ReadOptions().withConsistentRead(true));
+        Assert.assertEquals(2, large.size());
+        Assert.assertEquals("2015-04-01", large.get(0).getDate());
+
+        // global index
+        List<MerchantActivity> sales = repository.query("type", merchantId + "-sale",
+                SortKeyCondition.beginsWith("date", "2015-03"), true, 100);
+        Assert.assertEquals(1, sales.size());
+        Assert.assertEquals("2015-03-15", sales.get(0).getDate());
+
+        // every item of the merchant is read by a key query
+        QueryPlan plan = repository.explain("merchantId");
+        Assert.assertEquals(QueryPlan.AccessPath.KEY_QUERY, plan.getAccessPath());
+        Assert.assertEquals(-1, plan.getEstimatedItemsRead());
+
+        repository.deleteById(merchantId, "2015-03-15");
+        Assert.assertNull(repository.findOne(merchantId, "2015-03-15"));
+    }
+
+    @Test
+    public void testIndexProjection() {
+        addToEntityManager(Payment.class);
+        deleteTable("payment");
+        setupSchemaForEntity(Payment.class);
+
+        DynamoDBBaseRepository<Payment> repository = (DynamoDBBaseRepository<Payment>) entityManager
+                .getRepository(Payment.class);
+
+        String merchantId = UUID.randomUUID().toString();
+        for (int i = 0; i < 3; i++) {
+            Payment payment = new Payment();
+            payment.setMerchantId(merchantId);
+            payment.setAmount(new BigDecimal(i));
+            payment.setNote("payment " + i);
+            repository.save(payment);
+        }
+
+        // the note is not projected, payments are read from the table
+        List<Payment> payments = repository.query("merchantId", merchantId);
+        Assert.assertEquals(3, payments.size());
+        for (Payment payment : payments) {
+            Assert.assertNotNull(payment.getNote());
+        }
+
+        List<Payment> amounts = repository.query("merchantId", merchantId, true, 10,
+                new ReadOptions().withAttributeNames("amount"));
+        Assert.assertEquals(3, amounts.size());
+        Assert.assertNull(amounts.get(0).getNote());
+    }
+
+    @Test
+    public void testSaveAfterKeysOnlyIndexQuery() throws Exception {
+        addToEntityManager(Refund.class);
+        deleteTable("refund");
+        setupSchemaForEntity(Refund.class);
+
+        DynamoDBBaseRepository<Refund> repository = (DynamoDBBaseRepository<Refund>) entityManager
+                .getRepository(Refund.class);
+        repository.setChangeTracking(true);
+
+        String merchantId = UUID.randomUUID().toString();
+        for (int i = 0; i < 3; i++) {
+            Refund refund = new Refund();
+            refund.setMerchantId(merchantId);
+            refund.setAmount(new BigDecimal(i));
+            refund.setReason("refund " + i);
+            repository.save(refund);
+        }
+
+        // the index holds the keys alone, refunds are read from the table
+        EntityPage<Refund> page = repository.query("merchantId", merchantId, true, null,
+                10);
+        Assert.assertEquals(3, page.getContent().size());
+        Refund refund = page.getContent().get(0);
+        Assert.assertNotNull(refund.getReason());
+
+        refund.setAmount(new BigDecimal(100));
+        repository.save(refund);
+
+        Refund savedRefund = repository
+                .findAll(Collections.singletonList(refund.getId())).get(0);
+        Assert.assertEquals(new BigDecimal(100), savedRefund.getAmount());
+        Assert.assertEquals(refund.getReason(), savedRefund.getReason());
+
+        try (Stream<Refund> stream = repository.streamQuery("merchantId", merchantId)) {
+            for (Refund streamedRefund : stream.collect(Collectors.<Refund> toList())) {
+                Assert.assertNotNull(streamedRefund.getReason());
+            }
+        }
+
+        List<Refund> asyncRefunds = ((DynamoDBEntityManager) entityManager)
+                .getAsyncRepository(Refund.class).queryAsync("merchantId", merchantId)
+                .get();
+        Assert.assertEquals(3, asyncRefunds.size());
+        for (Refund asyncRefund : asyncRefunds) {
+            Assert.assertNotNull(asyncRefund.getReason());
+        }
+        repository.setChangeTracking(false);
+    }
+
+    @Test
+    public void testQueryPlan() throws Exception {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+        Merchant merchant = buildMerchant("planned merchant");
+        repository.save(merchant);
+
+        Assert.assertEquals(QueryPlan.AccessPath.INDEX_QUERY,
+                repository.explain("name").getAccessPath());
+        Assert.assertEquals(QueryPlan.AccessPath.KEY_QUERY,
+                repository.explain("id").getAccessPath());
+        Assert.assertEquals(1, repository.query("id", merchant.getId()).size());
+
+        // no index on the description of the expenses
+        DynamoDBBaseRepository<Expense> expenseRepository = (DynamoDBBaseRepository<Expense>) entityManager
+                .getRepository(Expense.class);
+        Assert.assertEquals(QueryPlan.AccessPath.NONE,
+                expenseRepository.explain("description").getAccessPath());
+
+        Expense expense = new Expense();
+        expense.setAmount(new BigDecimal(10));
+        expense.setDate(new Date());
+        expense.setDescription("planned description");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+        expenseRepository.save(expense);
+
+        expenseRepository.setScanFallbackSegments(4);
+        QueryPlan plan = expenseRepository.explain("description");
+        Assert.assertEquals(QueryPlan.AccessPath.FILTERED_SCAN, plan.getAccessPath());
+        Assert.assertEquals(4, plan.getScanSegments());
+
+        List<Expense> expenses = expenseRepository.query("description",
+                "planned description");
+        Assert.assertEquals(1, expenses.size());
+        Assert.assertEquals(expense.getId(), expenses.get(0).getId());
+
+        expenses = ((DynamoDBEntityManager) entityManager).getAsyncRepository(Expense.class)
+                .queryAsync("description", "planned description").get();
+        Assert.assertEquals(1, expenses.size());
+        Assert.assertEquals(expense.getId(), expenses.get(0).getId());
+    }
+
+    @Test
+    public void testChangeTracking() {
+        DynamoDBEntityManager dynamoDBEntityManager = (DynamoDBEntityManager) entityManager;
+        DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+        dynamoDBEntityManager.setMetricsRegistry(registry);
+
+        Merchant merchant = buildMerchant("tracked merchant");
+        entityManager.getRepository(Merchant.class).save(merchant);
+
+        DynamoDBBaseRepository<Expense> expenseRepository = (DynamoDBBaseRepository<Expense>) entityManager
+                .getRepository(Expense.class);
+        expenseRepository.setChangeTracking(true);
+
+        Expense expense = new Expense();
+        expense.setAmount(new BigDecimal(10));
+        expense.setDate(new Date());
+        expense.setDescription("tracked description");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+        expenseRepository.save(expense);
+
+        Expense loaded = expenseRepository.findOne(expense.getId());
+        loaded.setDescription("changed description");
+        loaded.setAmount(null);
+        expenseRepository.save(loaded);
+        // unchanged, the update only checks the item exists
+        expenseRepository.save(loaded);
+
+        Expense updated = expenseRepository.findOne(expense.getId());
+        Assert.assertEquals("changed description", updated.getDescription());
+        Assert.assertNull(updated.getAmount());
+        Assert.assertEquals(merchant.getId(), updated.getMerchant().getId());
+
+        long updateCount = 0;
+        for (OperationStatistics statistics : registry.getStatistics("expense")) {
+            if ("UpdateItem".equals(statistics.getOperation())) {
+                updateCount += statistics.getRequestCount();
+            }
+        }
+        Assert.assertEquals(2, updateCount);
+
+        // an unchanged entity deleted meanwhile is put again
+        expenseRepository.deleteById(expense.getId());
+        expenseRepository.save(loaded);
+        Assert.assertEquals(1, expenseRepository
+                .findAll(Collections.singletonList(expense.getId())).size());
+    }
+
+    @Test
+    public void testChangeTrackingWithWholeItemWrites() throws Exception {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+        repository.setChangeTracking(true);
+
+        Merchant merchant = buildMerchant("tracked async merchant");
+        repository.save(merchant);
+
+        // the async save puts the whole item, the snapshot is outdated
+        merchant.setName("changed async merchant");
+        ((DynamoDBEntityManager) entityManager).getAsyncRepository(Merchant.class)
+                .saveAsync(merchant).get();
+        merchant.setName("tracked async merchant");
+        repository.save(merchant);
+
+        Assert.assertEquals("tracked async merchant",
+                repository.findAll(Collections.singletonList(merchant.getId())).get(0)
+                        .getName());
+
+        // same for the write behind buffer
+        try (WriteBehindBuffer<Merchant> buffer = new WriteBehindBuffer<Merchant>(
+                repository, new WriteBehindOptions().withFlushIntervalMillis(60000))) {
+            merchant.setName("changed write behind merchant");
+            buffer.save(merchant);
+            buffer.flush();
+        }
+        merchant.setName("tracked async merchant");
+        repository.save(merchant);
+
+        Assert.assertEquals("tracked async merchant",
+                repository.findAll(Collections.singletonList(merchant.getId())).get(0)
+                        .getName());
+        repository.setChangeTracking(false);
+    }
+
+    @Test
+    public void testIncrement() {
+        Merchant merchant = buildMerchant("counted merchant");
+        entityManager.getRepository(Merchant.class).save(merchant);
+
+        DynamoDBBaseRepository<Expense> expenseRepository = (DynamoDBBaseRepository<Expense>) entityManager
+                .getRepository(Expense.class);
+
+        Expense expense = new Expense();
+        expense.setAmount(new BigDecimal(10));
+        expense.setDate(new Date());
+        expense.setDescription("counted expense");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+        expenseRepository.save(expense);
+
+        Assert.assertEquals(0, new BigDecimal(15).compareTo(
+                expenseRepository.increment(expense.getId(), "amount", 5)));
+        Assert.assertEquals(0, new BigDecimal(12).compareTo(
+                expenseRepository.increment(expense.getId(), "amount", -3)));
+        Assert.assertEquals(0, new BigDecimal(12)
+                .compareTo(expenseRepository.findOne(expense.getId()).getAmount()));
+
+        try {
+            expenseRepository.increment(UUID.randomUUID().toString(), "amount", 1);
+            Assert.fail("Missing items should not be created");
+        } catch (DataException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWarmUp() {
+        ((DynamoDBEntityManager) entityManager).warmUp(4);
+
+        Repository<Merchant> repository = entityManager.getRepository(Merchant.class);
+        Merchant merchant = buildMerchant("warm merchant");
+        repository.save(merchant);
+        Assert.assertEquals("warm merchant",
+                repository.findOne(merchant.getId()).getName());
+    }
+
+    @Test
+    public void testStream() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+
+        List<Merchant> merchants = new ArrayList<Merchant>();
+        for (int i = 0; i < 30; i++) {
+            merchants.add(buildMerchant("sample merchant"));
+        }
+        repository.save(merchants);
+
+        try (Stream<Merchant> stream = repository.streamAll()) {
+            Assert.assertEquals(merchants.size(), stream.count());
+        }
+
+        try (Stream<Merchant> stream = repository.streamQuery("name",
+                "sample merchant")) {
+            Assert.assertEquals(5, stream.limit(5).count());
+        }
+    }
+
+    @Test
+    public void testParallelScan() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+
+        List<Merchant> merchants = new ArrayList<Merchant>();
+        for (int i = 0; i < 50; i++) {
+            merchants.add(buildMerchant("sample merchant #" + i));
+        }
+        repository.save(merchants);
+
+        Assert.assertEquals(merchants.size(), repository.findAllParallel(4).size());
+
+        try (Stream<Merchant> stream = repository.streamAllParallel(4)) {
+            Assert.assertEquals(merchants.size(), stream.count());
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        DynamoDBAsyncRepository<Merchant> repository = ((DynamoDBEntityManager) entityManager)
+                .getAsyncRepository(Merchant.class);
+
+        Merchant merchant = repository.saveAsync(buildMerchant("async merchant")).get();
+        Assert.assertNotNull(merchant.getId());
+
+        Merchant foundMerchant = repository.findOneAsync(merchant.getId()).get();
+        Assert.assertNotNull(foundMerchant);
+        Assert.assertEquals("async merchant", foundMerchant.getName());
+
+        List<Merchant> queryMerchants = repository.queryAsync("name", "async merchant")
+                .get();
+        Assert.assertEquals(1, queryMerchants.size());
+
+        repository.deleteByIdAsync(merchant.getId()).get();
+        Assert.assertNull(repository.findOneAsync(merchant.getId()).get());
+    }
+
+    @Test
+    public void testAsyncReferences() throws Exception {
+        Merchant merchant = buildMerchant("async referenced merchant");
+        entityManager.getRepository(Merchant.class).save(merchant);
+
+        Expense expense = new Expense();
+        expense.setAmount(new BigDecimal(10));
+        expense.setDate(new Date());
+        expense.setDescription("async expense");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+        entityManager.getRepository(Expense.class).save(expense);
+
+        DynamoDBAsyncRepository<Expense> repository = ((DynamoDBEntityManager) entityManager)
+                .getAsyncRepository(Expense.class);
+        Expense foundExpense = repository.findOneAsync(expense.getId()).get();
+        Assert.assertNotNull(foundExpense.getMerchant());
+        Assert.assertEquals("async referenced merchant",
+                foundExpense.getMerchant().getName());
+
+        Assert.assertEquals(1,
+                repository.findAllAsMapAsync(Collections.singletonList(expense.getId()))
+                        .get().size());
+    }
+
+    @Test
+    public void testAsyncFailsWithFuture() throws Exception {
+        addToEntityManager(MerchantActivity.class);
+        setupSchemaForEntity(MerchantActivity.class);
+
+        // tables with a range key can not be read by id alone
+        CompletableFuture<MerchantActivity> result = ((DynamoDBEntityManager) entityManager)
+                .getAsyncRepository(MerchantActivity.class).findOneAsync("merchant");
+        try {
+            result.get();
+            Assert.fail("findOneAsync should fail");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof DataValidationException);
+        }
+    }
+
+    @Test
+    public void testWriteBehind() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+
+        Merchant merchant = buildMerchant("write behind merchant");
+        try (WriteBehindBuffer<Merchant> buffer = new WriteBehindBuffer<Merchant>(
+                repository, new WriteBehindOptions().withFlushIntervalMillis(60000))) {
+            buffer.save(merchant);
+            merchant.setName("updated write behind merchant");
+            buffer.save(merchant);
+            Assert.assertEquals(1, buffer.getBufferedCount());
+
+            buffer.flush();
+            Assert.assertEquals(0, buffer.getBufferedCount());
+        }
+
+        Merchant savedMerchant = repository.findOne(merchant.getId());
+        Assert.assertNotNull(savedMerchant);
+        Assert.assertEquals("updated write behind merchant", savedMerchant.getName());
+    }
+
+    @Test
+    public void testEntityCache() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+        repository.setEntityCache(new EntityCache(100, 60000, 60000));
+
+        try {
+            Merchant merchant = buildMerchant("cached merchant");
+            repository.save(merchant);
+
+            Assert.assertNotNull(repository.findOne(merchant.getId()));
+            Assert.assertNotNull(repository.findOne(merchant.getId()));
+            Assert.assertNull(repository.findOne("missing merchant id"));
+            Assert.assertNull(repository.findOne("missing merchant id"));
+
+            EntityCacheStatistics statistics = repository.getCacheStatistics();
+            Assert.assertEquals(1, statistics.getHits());
+            Assert.assertEquals(1, statistics.getNegativeHits());
+            Assert.assertEquals(2, statistics.getMisses());
+
+            // saves invalidate the cached item
+            merchant.setName("updated cached merchant");
+            repository.save(merchant);
+            Assert.assertEquals("updated cached merchant",
+                    repository.findOne(merchant.getId()).getName());
+        } finally {
+            repository.setEntityCache(null);
+        }
+    }
+
+    @Test
+    public void testFindAllByIds() {
+        DynamoDBBaseRepository<Merchant> repository = (DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class);
+
+        // more than one BatchGetItem chunk
+        List<Merchant> merchants = new ArrayList<Merchant>();
+        for (int i = 0; i < 150; i++) {
+            Merchant merchant = buildMerchant("sample merchant #" + i);
+            repository.save(merchant);
+            merchants.add(merchant);
+        }
+
+        List<String> ids = new ArrayList<String>();
+        for (int i = merchants.size() - 1; i >= 0; i--) {
+            ids.add(merchants.get(i).getId());
+        }
+        ids.add("missing merchant id");
+
+        List<Merchant> foundMerchants = repository.findAll(ids);
+
+        Assert.assertNotNull(foundMerchants);
+        Assert.assertEquals(merchants.size(), foundMerchants.size());
+        for (int i = 0; i < foundMerchants.size(); i++) {
+            Assert.assertEquals(ids.get(i), foundMerchants.get(i).getId());
+        }
+
+        Assert.assertNull(repository.findAllAsMap(ids).get("missing merchant id"));
+    }
+
+    @Test
+    public void testSession() {
+        Repository<Merchant> repository = entityManager.getRepository(Merchant.class);
+        Merchant merchant = buildMerchant("sample merchant");
+        repository.save(merchant);
+
+        try (EntitySession session = ((DynamoDBEntityManager) entityManager)
+                .openSession()) {
+            Merchant found = repository.findOne(merchant.getId());
+            Assert.assertSame(found, repository.findOne(merchant.getId()));
+            Assert.assertSame(found, repository.findAll().get(0));
+
+            repository.deleteById(merchant.getId());
+            Assert.assertNull(repository.findOne(merchant.getId()));
+        }
+
+        Assert.assertNull(((DynamoDBEntityManager) entityManager).getCurrentSession());
+    }
+
     @Test
     public void testQueryManyToMany() {
         Repository<Merchant> merchantRepository = entityManager
@@ -229,4 +843,121 @@ public class DynamoDBBaseRepositoryTest extends BaseIntegrationTest {
         
         expenseRepository.query("merchant.id", merchant.getId());
     }
+
+    @Test
+    public void testQueryResolvesReferences() {
+        Repository<Merchant> merchantRepository = entityManager
+                .getRepository(Merchant.class);
+        Merchant[] merchants = { buildMerchant("new merchant"),
+                buildMerchant("other merchant") };
+        for (Merchant merchant : merchants) {
+            merchantRepository.save(merchant);
+        }
+
+        Repository<Expense> expenseRepository = entityManager
+                .getRepository(Expense.class);
+
+        for (int i = 0; i < 10; i++) {
+            Expense expense = new Expense();
+            expense.setAmount(new BigDecimal(i));
+            expense.setDate(new Date());
+            expense.setDescription("expense description #" + i);
+            expense.setExpenseType(ExpenseType.REIMBURSABLE);
+            expense.setMerchant(merchants[i % 2]);
+
+            expenseRepository.save(expense);
+        }
+
+        DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+        ((DynamoDBEntityManager) entityManager).setMetricsRegistry(registry);
+
+        List<Expense> expenses = expenseRepository.query("merchant.id",
+                merchants[0].getId());
+        Assert.assertEquals(5, expenses.size());
+        for (Expense expense : expenses) {
+            Assert.assertNotNull(expense.getMerchant());
+            Assert.assertEquals(merchants[0].getId(), expense.getMerchant().getId());
+            Assert.assertEquals("new merchant", expense.getMerchant().getName());
+        }
+
+        // all the expenses of the page share one BatchGetItem of their merchants
+        Assert.assertEquals(1, getRequestCount(registry, "merchant", "BatchGetItem"));
+        Assert.assertEquals(0, getRequestCount(registry, "merchant", "GetItem"));
+    }
+
+    private static long getRequestCount(DefaultMetricsRegistry registry,
+            String tableName, String operation) {
+        long requestCount = 0;
+        for (OperationStatistics statistics : registry.getStatistics(tableName)) {
+            if (operation.equals(statistics.getOperation())) {
+                requestCount += statistics.getRequestCount();
+            }
+        }
+
+        return requestCount;
+    }
+
+    @Test
+    public void testReadOptions() {
+        Repository<Merchant> merchantRepository = entityManager
+                .getRepository(Merchant.class);
+        Merchant merchant = buildMerchant("new merchant");
+        merchantRepository.save(merchant);
+
+        DynamoDBBaseRepository<Expense> expenseRepository = (DynamoDBBaseRepository<Expense>) entityManager
+                .getRepository(Expense.class);
+
+        Expense expense = new Expense();
+        expense.setAmount(new BigDecimal(10));
+        expense.setDate(new Date());
+        expense.setDescription("expense description");
+        expense.setExpenseType(ExpenseType.REIMBURSABLE);
+        expense.setMerchant(merchant);
+        expenseRepository.save(expense);
+
+        Expense consistentExpense = expenseRepository.findOne(expense.getId(),
+                new ReadOptions().withConsistentRead(true));
+        Assert.assertNotNull(consistentExpense);
+        Assert.assertEquals("expense description", consistentExpense.getDescription());
+
+        ReadOptions projection = new ReadOptions().withAttributeNames("description");
+        Expense partialExpense = expenseRepository.findOne(expense.getId(), projection);
+        Assert.assertEquals(expense.getId(), partialExpense.getId());
+        Assert.assertEquals("expense description", partialExpense.getDescription());
+        Assert.assertNull(partialExpense.getAmount());
+        Assert.assertNull(partialExpense.getMerchant());
+
+        List<Expense> partialExpenses = expenseRepository.query("merchant.id",
+                merchant.getId(), true, 100, projection);
+        Assert.assertEquals(1, partialExpenses.size());
+        Assert.assertNull(partialExpenses.get(0).getAmount());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        DynamoDBEntityManager dynamoDBEntityManager = (DynamoDBEntityManager) entityManager;
+        DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+        dynamoDBEntityManager.setMetricsRegistry(registry);
+
+        Repository<Merchant> repository = entityManager.getRepository(Merchant.class);
+        Merchant merchant = buildMerchant("sample merchant");
+        repository.save(merchant);
+        repository.findOne(merchant.getId());
+
+        long getItemCount = 0;
+        for (OperationStatistics statistics : registry.getStatistics("merchant")) {
+            if ("GetItem".equals(statistics.getOperation())) {
+                getItemCount += statistics.getRequestCount();
+                Assert.assertEquals(1, statistics.getItemCount());
+            }
+        }
+        Assert.assertEquals(1, getItemCount);
+
+        Object requestCount = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("org.devspark.aws.lorm.dynamodb:type=TableMetrics,manager="
+                        + Integer.toHexString(System.identityHashCode(dynamoDBEntityManager))
+                        + ",name=merchant"),
+                "RequestCount");
+        Assert.assertEquals(2L, requestCount);
+    }
 }
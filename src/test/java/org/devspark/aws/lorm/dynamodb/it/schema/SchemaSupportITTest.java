@@ -6,6 +6,7 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.devspark.aws.lorm.dynamodb.DynamoDBBaseRepository;
+import org.devspark.aws.lorm.dynamodb.DynamoDBEntityManager;
 import org.devspark.aws.lorm.mapping.EntityToItemMapperImpl;
 import org.devspark.aws.lorm.mapping.ItemToEntityMapper;
 import org.devspark.aws.lorm.mapping.ItemToEntityMapperImpl;
@@ -79,6 +80,25 @@ public class SchemaSupportITTest extends BaseIntegrationTest {
 
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSyncAllSchemas() {
+        deleteTable("merchant");
+        deleteTable("expense");
+
+        DynamoDBEntityManager dynamoDBEntityManager = (DynamoDBEntityManager) entityManager;
+        dynamoDBEntityManager.syncAllSchemas(true);
+
+        List<SchemaValidationError> errors = new ArrayList<SchemaValidationError>();
+        Assert.assertTrue(((DynamoDBBaseRepository<Merchant>) entityManager
+                .getRepository(Merchant.class)).isValid(errors));
+        Assert.assertTrue(((DynamoDBBaseRepository<Expense>) entityManager
+                .getRepository(Expense.class)).isValid(errors));
+
+        // existing tables are validated
+        dynamoDBEntityManager.syncAllSchemas(false);
+    }
+
     @Test
     public void validateSchemaNegativeCase() {
         deleteTable("merchant");
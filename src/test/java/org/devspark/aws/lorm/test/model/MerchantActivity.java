@@ -0,0 +1,59 @@
+package org.devspark.aws.lorm.test.model;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.devspark.aws.lorm.dynamodb.RangeKey;
+
+@Entity
+@Table(indexes = {@Index(columnList="merchantId,amount", unique=false),
+        @Index(columnList="type,date", unique=false)})
+public class MerchantActivity {
+
+    @Id
+    private String merchantId;
+
+    @RangeKey
+    private String date;
+
+    private String type;
+
+    private BigDecimal amount;
+
+    public String getMerchantId() {
+        return merchantId;
+    }
+
+    public void setMerchantId(String merchantId) {
+        this.merchantId = merchantId;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.devspark.aws.lorm.test.model;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.devspark.aws.lorm.dynamodb.IndexSettings;
+import org.devspark.aws.lorm.dynamodb.TableCapacity;
+
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+
+@Entity
+@Table(indexes = { @Index(columnList = "merchantId", unique = false) })
+@TableCapacity(readUnits = 10, writeUnits = 5)
+@IndexSettings(columnList = "merchantId", projection = ProjectionType.INCLUDE,
+        include = { "amount" }, readUnits = 5, writeUnits = 5)
+public class Payment extends BaseEntity {
+
+    private String merchantId;
+
+    private BigDecimal amount;
+
+    private String note;
+
+    public String getMerchantId() {
+        return merchantId;
+    }
+
+    public void setMerchantId(String merchantId) {
+        this.merchantId = merchantId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getNote() {
+        return note;
+    }
+
+    public void setNote(String note) {
+        this.note = note;
+    }
+
+}
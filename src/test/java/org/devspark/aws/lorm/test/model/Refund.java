@@ -0,0 +1,49 @@
+package org.devspark.aws.lorm.test.model;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.devspark.aws.lorm.dynamodb.IndexSettings;
+
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+
+@Entity
+@Table(indexes = { @Index(columnList = "merchantId", unique = false) })
+@IndexSettings(columnList = "merchantId", projection = ProjectionType.KEYS_ONLY,
+        readUnits = 5, writeUnits = 5)
+public class Refund extends BaseEntity {
+
+    private String merchantId;
+
+    private BigDecimal amount;
+
+    private String reason;
+
+    public String getMerchantId() {
+        return merchantId;
+    }
+
+    public void setMerchantId(String merchantId) {
+        this.merchantId = merchantId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+}
@@ -4,8 +4,11 @@ import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+import org.devspark.aws.lorm.dynamodb.Compressed;
+
 @Entity
 public class SampleEntity {
+    @Compressed(threshold = 64)
     private String someRandomField;
     @Id
     private String id;